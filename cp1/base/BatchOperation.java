@@ -0,0 +1,35 @@
+package cp1.base;
+
+/**
+ * A single step of a batch passed to
+ * TransactionManager.operateOnResourcesInCurrentTransaction:
+ * an operation together with the identifier
+ * of the resource it is to be applied to.
+ */
+public final class BatchOperation {
+
+	private final ResourceId rid;
+	private final ResourceOperation operation;
+
+	public BatchOperation(
+			ResourceId rid,
+			ResourceOperation operation
+	) {
+		this.rid = rid;
+		this.operation = operation;
+	}
+
+	public ResourceId getResourceId() {
+		return this.rid;
+	}
+
+	public ResourceOperation getResourceOperation() {
+		return this.operation;
+	}
+
+	@Override
+	public String toString() {
+		return this.operation + " on " + this.rid;
+	}
+
+}
@@ -0,0 +1,16 @@
+package cp1.base;
+
+/**
+ * A resource identifier that exposes a dense,
+ * non-negative ordinal. Equal identifiers must
+ * have equal indices and distinct identifiers
+ * handed to one transaction manager must have
+ * distinct indices, which lets the manager
+ * resolve them with a plain array access
+ * instead of hashing.
+ */
+public interface IndexedResourceId extends ResourceId {
+
+	public int getIndex();
+
+}
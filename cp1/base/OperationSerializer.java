@@ -0,0 +1,20 @@
+package cp1.base;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts resource operations to and from bytes
+ * for a transaction manager's durable log. Reading
+ * back what has been written must give an operation
+ * with the same effect and the same undo. Read-only
+ * operations are never logged.
+ */
+public interface OperationSerializer {
+
+	public void write(ResourceOperation operation, DataOutput out) throws IOException;
+
+	public ResourceOperation read(DataInput in) throws IOException;
+
+}
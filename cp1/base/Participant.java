@@ -0,0 +1,65 @@
+package cp1.base;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One node's side of a global transaction run with
+ * two-phase commit. Each global transaction has a
+ * branch on every participant it operates on, which
+ * is a transaction of the participant's own manager.
+ * All methods only send a message: they return at
+ * once, and the future completes when the reply
+ * arrives. Messages about one branch are handled in
+ * the order they are sent.
+ */
+public interface Participant {
+
+	/**
+	 * Applies an operation in the branch of a global
+	 * transaction, starting the branch with the first
+	 * one. The future fails with whatever the
+	 * operation threw.
+	 */
+	public CompletableFuture<Void> operate(
+			long transactionId,
+			ResourceId rid,
+			ResourceOperation operation);
+
+	/**
+	 * Asks whether a branch can commit. A branch that
+	 * votes true keeps its resources and commits or
+	 * aborts only when told to; one that votes false
+	 * has been rolled back.
+	 */
+	public CompletableFuture<Boolean> prepare(
+			long transactionId);
+
+	/**
+	 * Commits a prepared branch, as decided by the
+	 * coordinator. Committing a branch the participant
+	 * does not know succeeds, so that the decision may
+	 * be sent again.
+	 */
+	public CompletableFuture<Void> commit(
+			long transactionId);
+
+	/**
+	 * Commits a branch that has not been prepared, in
+	 * one phase. The future fails with
+	 * ActiveTransactionAborted if it cannot commit, in
+	 * which case it is rolled back, and if the
+	 * participant does not know the branch, which may
+	 * have been lost or rolled back.
+	 */
+	public CompletableFuture<Void> commitOnePhase(
+			long transactionId);
+
+	/**
+	 * Rolls a branch back, interrupting an operation
+	 * that is waiting for a resource. Aborting a branch
+	 * the participant does not know succeeds.
+	 */
+	public CompletableFuture<Void> abort(
+			long transactionId);
+
+}
@@ -0,0 +1,15 @@
+package cp1.base;
+
+/**
+ * Marks a resource operation that does not
+ * modify the resource it is applied to. The
+ * transaction manager may let many transactions
+ * hold a resource at the same time as long as
+ * they only apply read-only operations to it.
+ * The operation's execute must be safe to run
+ * concurrently with other read-only operations
+ * on the same resource.
+ */
+public interface ReadOnlyOperation {
+
+}
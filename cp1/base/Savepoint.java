@@ -0,0 +1,12 @@
+package cp1.base;
+
+/**
+ * A point within a transaction that the transaction
+ * can be rolled back to without ending it. A savepoint
+ * is valid only in the transaction that created it,
+ * until that transaction ends or is rolled back to an
+ * earlier savepoint.
+ */
+public interface Savepoint {
+
+}
@@ -0,0 +1,42 @@
+package cp1.base;
+
+/**
+ * A sub-transaction of the transaction that started
+ * it, to be run by any thread, one call at a time,
+ * possibly while other sub-transactions of the same
+ * transaction run on other threads. It sees the resources held by its
+ * parent, and whatever it acquires is held by the
+ * parent until the parent ends. Two active
+ * sub-transactions of one parent never operate on
+ * the same resource: the second one to try is
+ * aborted instead of waiting. On commit its
+ * operations become operations of the parent, to be
+ * undone if the parent rolls back; on rollback they
+ * are undone. A parent cannot operate on resources
+ * or commit while it has active sub-transactions.
+ * Its rollback aborts them and rolls them back, a
+ * sub-transaction inside an operation once the
+ * operation returns. With a durable log, a
+ * sub-transaction's operations are logged as the
+ * parent's when it commits.
+ */
+public interface SubTransaction {
+
+	public void operateOnResource(
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+
+	public void commit(
+	) throws
+		ActiveTransactionAborted;
+
+	public void rollback();
+
+	public boolean isAborted();
+
+}
@@ -7,9 +7,17 @@
  */
 package cp1.base;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * The transaction manager interface your
- * solution has to implement.
+ * solution has to implement. The methods beyond
+ * the original assignment have default bodies, so
+ * that implementations written against it still
+ * compile: they fall back to the original methods
+ * or throw UnsupportedOperationException.
  * 
  * @author Konrad Iwanicki (iwanicki@mimuw.edu.pl)
  */
@@ -18,6 +26,48 @@ public interface TransactionManager {
 	public void startTransaction(
 	) throws
 		AnotherTransactionActiveException;
+
+	/**
+	 * Starts a transaction with a priority, where
+	 * startTransaction() uses priority 0. A deadlock
+	 * is resolved by aborting a transaction of the
+	 * lowest priority on the cycle, and resources
+	 * that schedule their waiters by priority grant
+	 * higher priorities first. A manager that never
+	 * makes transactions wait may ignore it, as the
+	 * default does.
+	 */
+	public default void startTransaction(
+			int priority
+	) throws
+		AnotherTransactionActiveException {
+		startTransaction();
+	}
+	
+	/**
+	 * Starts a transaction and acquires all resources
+	 * of a declared set up front, in the order of their
+	 * identifiers. As long as transactions only wait
+	 * while acquiring declared sets, none of them can
+	 * deadlock and the manager skips deadlock detection.
+	 * Resources outside the set may still be used,
+	 * they are acquired on first use as usual.
+	 * Unknown identifiers are reported before the
+	 * transaction is started. If the transaction is
+	 * aborted or interrupted while acquiring, it stays
+	 * active and has to be rolled back. The default
+	 * just starts a transaction, which acquires the
+	 * resources on first use and may deadlock.
+	 */
+	public default void startTransaction(
+			Collection<ResourceId> rids
+	) throws
+		AnotherTransactionActiveException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		InterruptedException {
+		startTransaction();
+	}
 	
 	public void operateOnResourceInCurrentTransaction(
 			ResourceId rid,
@@ -28,14 +78,112 @@ public interface TransactionManager {
 		ActiveTransactionAborted,
 		ResourceOperationException,
 		InterruptedException;
+
+	/**
+	 * Applies a list of operations in the current
+	 * transaction, in list order. All resources the
+	 * list refers to are acquired first, in the order
+	 * of their identifiers, so that concurrent batches
+	 * cannot deadlock with one another. Unknown
+	 * identifiers are reported before anything is
+	 * acquired, and an abort or interrupt while
+	 * acquiring leaves all operations unapplied.
+	 * Once the resources are held, the operations
+	 * behave as if passed one by one to
+	 * operateOnResourceInCurrentTransaction. The
+	 * default passes them one by one right away,
+	 * without acquiring anything first.
+	 */
+	public default void operateOnResourcesInCurrentTransaction(
+			List<BatchOperation> operations
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException {
+		for (BatchOperation operation : operations) {
+			operateOnResourceInCurrentTransaction(
+					operation.getResourceId(),
+					operation.getResourceOperation());
+		}
+	}
 	
 	public void commitCurrentTransaction(
 	) throws
 		NoActiveTransactionException,
 		ActiveTransactionAborted;
+
+	/**
+	 * Commits the current transaction like
+	 * commitCurrentTransaction, except that it does
+	 * not wait for a manager that keeps a durable log
+	 * to write the commit to disk. The resources are
+	 * released and another transaction may start
+	 * right away. The returned future completes once
+	 * the commit is durable, at once if the manager
+	 * keeps no log, or exceptionally if writing the
+	 * log fails. The default commits synchronously.
+	 */
+	public default CompletableFuture<Void> commitCurrentTransactionAsync(
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted {
+		commitCurrentTransaction();
+		return CompletableFuture.completedFuture(null);
+	}
 	
 	public void rollbackCurrentTransaction();
 
+	/**
+	 * Starts a sub-transaction of the current
+	 * transaction, which may then be handed to
+	 * another thread. A manager that cannot run
+	 * sub-transactions throws
+	 * UnsupportedOperationException, as the default
+	 * does.
+	 */
+	public default SubTransaction startSubTransaction(
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted {
+		throw new UnsupportedOperationException("Sub-transactions");
+	}
+
+	/**
+	 * Marks the current state of the current
+	 * transaction, so that it can be returned to
+	 * with rollbackToSavepoint. The default throws
+	 * UnsupportedOperationException.
+	 */
+	public default Savepoint createSavepoint(
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted {
+		throw new UnsupportedOperationException("Savepoints");
+	}
+
+	/**
+	 * Undoes the operations of the current transaction
+	 * performed since a given savepoint was created,
+	 * newest first, and drops the savepoints created
+	 * after it. The transaction stays active and the
+	 * savepoint stays valid. If releaseResources is
+	 * set, the resources acquired since the savepoint
+	 * are released as well; otherwise they stay held.
+	 * Throws IllegalArgumentException if the savepoint
+	 * is not valid in the current transaction. The
+	 * default throws UnsupportedOperationException.
+	 */
+	public default void rollbackToSavepoint(
+			Savepoint savepoint,
+			boolean releaseResources
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted {
+		throw new UnsupportedOperationException("Savepoints");
+	}
+
 	public boolean isTransactionActive();
 
 	public boolean isTransactionAborted();
@@ -0,0 +1,18 @@
+package cp1.base;
+
+/**
+ * Thrown when a global transaction was told to commit
+ * but its participant did not answer in time, so it
+ * may or may not have committed. Retrying it may apply
+ * its operations twice.
+ */
+public final class TransactionOutcomeUnknownException extends Exception {
+
+	private static final long serialVersionUID = 4310275610985143521L;
+
+	@Override
+	public String getMessage() {
+		return "The outcome of the transaction is unknown";
+	}
+
+}
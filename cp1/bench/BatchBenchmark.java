@@ -0,0 +1,100 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cp1.base.BatchOperation;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Compares transactions that apply a fixed number of operations
+ * one call at a time with transactions that pass the same
+ * operations in a single batch. Reports the time per operation
+ * on one thread and the throughput of random, unordered
+ * transactions on several threads.
+ * Usage: BatchBenchmark [transactions] [operationsPerTransaction] [threads]
+ */
+public class BatchBenchmark {
+    private static final int RESOURCES = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int perTransaction = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        List<Resource> resources = new ArrayList<>(RESOURCES);
+        ResourceId[] ids = new ResourceId[RESOURCES];
+        for (int i = 0; i < RESOURCES; i++) {
+            ids[i] = new BenchResourceId(i);
+            resources.add(new BenchResource(ids[i]));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, System::nanoTime);
+
+        List<List<BatchOperation>> batches = new ArrayList<>();
+        for (int start = 0; start < RESOURCES; start += perTransaction) {
+            List<BatchOperation> batch = new ArrayList<>(perTransaction);
+            for (int i = 0; i < perTransaction; i++)
+                batch.add(new BatchOperation(ids[(start + i) % RESOURCES], IncOp.get()));
+            batches.add(batch);
+        }
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            runSingle(tm, batches, transactions);
+            long single = System.nanoTime() - start;
+            start = System.nanoTime();
+            runBatched(tm, batches, transactions);
+            long batched = System.nanoTime() - start;
+            if (round == 1) {
+                double ops = (double) transactions * perTransaction;
+                System.out.printf("single ns/op\t%.1f%n", single / ops);
+                System.out.printf("batch ns/op\t%.1f%n", batched / ops);
+            }
+        }
+
+        // Random resources in random order: one call at a time risks deadlocks,
+        // a batch acquires in id order and cannot take part in one.
+        BenchResource[] all = BenchHarness.resources(64);
+        ResourceId[] hot = BenchHarness.ids(all);
+        TransactionManager contended = TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        System.out.println("contended single\t" + BenchHarness.run(contended, threads, 2, (m, random) -> {
+            m.startTransaction();
+            for (int i = 0; i < perTransaction; i++)
+                m.operateOnResourceInCurrentTransaction(hot[random.nextInt(hot.length)], IncOp.get());
+            m.commitCurrentTransaction();
+        }));
+        System.out.println("contended batch\t" + BenchHarness.run(contended, threads, 2, (m, random) -> {
+            List<BatchOperation> batch = new ArrayList<>(perTransaction);
+            for (int i = 0; i < perTransaction; i++)
+                batch.add(new BatchOperation(hot[random.nextInt(hot.length)], IncOp.get()));
+            m.startTransaction();
+            m.operateOnResourcesInCurrentTransaction(batch);
+            m.commitCurrentTransaction();
+        }));
+    }
+
+    private static void runSingle(TransactionManager tm, List<List<BatchOperation>> batches, int transactions)
+            throws Exception {
+        for (int t = 0; t < transactions; t++) {
+            List<BatchOperation> batch = batches.get(t % batches.size());
+            tm.startTransaction();
+            for (int i = 0; i < batch.size(); i++) {
+                BatchOperation step = batch.get(i);
+                tm.operateOnResourceInCurrentTransaction(step.getResourceId(), step.getResourceOperation());
+            }
+            tm.commitCurrentTransaction();
+        }
+    }
+
+    private static void runBatched(TransactionManager tm, List<List<BatchOperation>> batches, int transactions)
+            throws Exception {
+        for (int t = 0; t < transactions; t++) {
+            tm.startTransaction();
+            tm.operateOnResourcesInCurrentTransaction(batches.get(t % batches.size()));
+            tm.commitCurrentTransaction();
+        }
+    }
+}
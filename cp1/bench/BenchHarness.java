@@ -0,0 +1,138 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+
+// Runs a transaction body on a number of threads for a fixed time and
+// collects commits, aborts and latency percentiles. Aborted transactions
+// are rolled back and counted; any other exception fails the run.
+final class BenchHarness {
+    // Latencies kept per thread; older samples are overwritten.
+    private static final int SAMPLES = 1 << 16;
+
+    // One transaction, from startTransaction to commitCurrentTransaction.
+    interface Body {
+        void run(TransactionManager tm, ThreadLocalRandom random) throws Exception;
+    }
+
+    static final class Result {
+        final long commits;
+        final long aborts;
+        final double seconds;
+        final long p50Nanos;
+        final long p99Nanos;
+
+        Result(long commits, long aborts, double seconds, long p50Nanos, long p99Nanos) {
+            this.commits = commits;
+            this.aborts = aborts;
+            this.seconds = seconds;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        double throughput() {
+            return commits / seconds;
+        }
+
+        double abortRate() {
+            return commits + aborts == 0 ? 0 : (double) aborts / (commits + aborts);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.0f tx/s\taborts %.2f%%\tp50 %.1f us\tp99 %.1f us",
+                    throughput(), 100 * abortRate(), p50Nanos / 1e3, p99Nanos / 1e3);
+        }
+    }
+
+    private BenchHarness() {
+    }
+
+    static BenchResource[] resources(int size) {
+        BenchResource[] all = new BenchResource[size];
+        for (int i = 0; i < size; i++)
+            all[i] = new BenchResource(new BenchResourceId(i));
+        return all;
+    }
+
+    static List<Resource> asList(BenchResource[] all) {
+        List<Resource> list = new ArrayList<>(all.length);
+        for (BenchResource r : all)
+            list.add(r);
+        return list;
+    }
+
+    static ResourceId[] ids(BenchResource[] all) {
+        ResourceId[] ids = new ResourceId[all.length];
+        for (int i = 0; i < all.length; i++)
+            ids[i] = all[i].getId();
+        return ids;
+    }
+
+    static Result run(TransactionManager tm, int threads, double seconds, Body body) throws InterruptedException {
+        long[] commits = new long[threads];
+        long[] aborts = new long[threads];
+        long[][] latencies = new long[threads][SAMPLES];
+        Throwable[] failure = new Throwable[1];
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int me = t;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (System.nanoTime() < deadline) {
+                        long begin = System.nanoTime();
+                        try {
+                            body.run(tm, random);
+                            latencies[me][(int) (commits[me]++ % SAMPLES)] = System.nanoTime() - begin;
+                        } catch (ActiveTransactionAborted e) {
+                            aborts[me]++;
+                        } finally {
+                            tm.rollbackCurrentTransaction();
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+        }
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        if (failure[0] != null)
+            throw new AssertionError(failure[0]);
+
+        long committed = 0;
+        long aborted = 0;
+        int samples = 0;
+        for (int t = 0; t < threads; t++) {
+            committed += commits[t];
+            aborted += aborts[t];
+            samples += (int) Math.min(commits[t], SAMPLES);
+        }
+        long[] all = new long[samples];
+        int n = 0;
+        for (int t = 0; t < threads; t++) {
+            int k = (int) Math.min(commits[t], SAMPLES);
+            System.arraycopy(latencies[t], 0, all, n, k);
+            n += k;
+        }
+        Arrays.sort(all);
+        long p50 = samples == 0 ? 0 : all[samples / 2];
+        long p99 = samples == 0 ? 0 : all[Math.min(samples - 1, (int) (samples * 0.99))];
+        return new Result(committed, aborted, elapsed, p50, p99);
+    }
+}
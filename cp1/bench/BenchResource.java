@@ -0,0 +1,29 @@
+package cp1.bench;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+
+// Counter resource in the style of the demo's ResourceImpl.
+final class BenchResource extends Resource {
+    private volatile long value = 0;
+
+    BenchResource(ResourceId id) {
+        super(id);
+    }
+
+    void incValue() {
+        long x = value;
+        ++x;
+        value = x;
+    }
+
+    void decValue() {
+        long x = value;
+        --x;
+        value = x;
+    }
+
+    long getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,44 @@
+package cp1.bench;
+
+import cp1.base.IndexedResourceId;
+import cp1.base.ResourceId;
+
+// Resource id with a dense ordinal, resolved through the array fast path.
+final class BenchResourceId implements IndexedResourceId {
+    private final int value;
+
+    BenchResourceId(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public int getIndex() {
+        return value;
+    }
+
+    @Override
+    public int compareTo(ResourceId other) {
+        if (!(other instanceof BenchResourceId))
+            throw new RuntimeException("Comparing incompatible resource IDs");
+
+        return Integer.compare(value, ((BenchResourceId) other).value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BenchResourceId))
+            return false;
+
+        return value == ((BenchResourceId) obj).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return "R" + value;
+    }
+}
@@ -0,0 +1,75 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Runs two-resource transactions on disjoint resources
+ * and reports throughput and mean commit latency as the
+ * number of resources managed by the TM grows.
+ * Usage: CommitBenchmark [threads] [seconds]
+ */
+public class CommitBenchmark {
+    private static final int[] SIZES = {16, 1024, 65536, 1 << 20};
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        System.out.println("resources\ttx/s\tcommit ns");
+        for (int size : SIZES)
+            run(Math.max(size, 2 * threads), threads, seconds);
+    }
+
+    private static void run(int size, int threads, double seconds) throws Exception {
+        List<Resource> resources = new ArrayList<>(size);
+        ResourceId[] ids = new ResourceId[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = new BenchResourceId(i);
+            resources.add(new BenchResource(ids[i]));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, System::currentTimeMillis);
+
+        long[] transactions = new long[threads];
+        long[] commitNanos = new long[threads];
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int me = t;
+            // Each worker owns two resources spread across the whole range.
+            final ResourceId first = ids[(int) ((long) size * me / threads)];
+            final ResourceId second = ids[(int) ((long) size * me / threads) + 1];
+            workers[t] = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        tm.startTransaction();
+                        tm.operateOnResourceInCurrentTransaction(first, IncOp.get());
+                        tm.operateOnResourceInCurrentTransaction(second, IncOp.get());
+                        long start = System.nanoTime();
+                        tm.commitCurrentTransaction();
+                        commitNanos[me] += System.nanoTime() - start;
+                        transactions[me]++;
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+        }
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+
+        long total = 0;
+        long nanos = 0;
+        for (int t = 0; t < threads; t++) {
+            total += transactions[t];
+            nanos += commitNanos[t];
+        }
+        System.out.printf("%d\t%.0f\t%.1f%n", size, total / seconds, (double) nanos / Math.max(total, 1));
+    }
+}
@@ -0,0 +1,69 @@
+package cp1.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import cp1.base.ResourceId;
+import cp1.solution.TM;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Commit-heavy load on a manager with a durable log: single-operation
+ * transactions on random resources, committed synchronously and then
+ * asynchronously, for a few group commit windows. Reports throughput
+ * and disk flushes per commit, and checks that every asynchronous
+ * commit eventually completes.
+ * Usage: CommitPipelineBenchmark [threads] [seconds] [windowMicros...]
+ */
+public class CommitPipelineBenchmark {
+    private static final int RESOURCES = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        long[] windows = { 0, 100 };
+        if (args.length > 2) {
+            windows = new long[args.length - 2];
+            for (int i = 2; i < args.length; i++)
+                windows[i - 2] = Long.parseLong(args[i]);
+        }
+
+        for (long window : windows) {
+            for (boolean async : new boolean[] { false, true }) {
+                Path directory = Files.createTempDirectory("tm-log");
+                try {
+                    run(directory, threads, seconds, window, async);
+                } finally {
+                    try (Stream<Path> files = Files.walk(directory)) {
+                        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run(Path directory, int threads, double seconds, long window, boolean async)
+            throws Exception {
+        BenchResource[] all = BenchHarness.resources(RESOURCES);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TM tm = (TM) TransactionManagerFactory.newDurableTM(BenchHarness.asList(all), System::nanoTime,
+                directory, new DurableLogBenchmark.IncSerializer(), window);
+        ConcurrentLinkedQueue<CompletableFuture<Void>> commits = new ConcurrentLinkedQueue<>();
+        BenchHarness.Result result = BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            m.startTransaction();
+            m.operateOnResourceInCurrentTransaction(ids[random.nextInt(ids.length)], IncOp.get());
+            if (async)
+                commits.add(m.commitCurrentTransactionAsync());
+            else
+                m.commitCurrentTransaction();
+        });
+        CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        System.out.printf("window %d us\t%s\t%s\tflushes/commit %.3f%n", window, async ? "async" : "sync",
+                result, (double) tm.getLogForces() / Math.max(1, result.commits));
+    }
+}
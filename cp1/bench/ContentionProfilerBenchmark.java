@@ -0,0 +1,52 @@
+package cp1.bench;
+
+import cp1.base.ResourceId;
+import cp1.solution.ContentionReport;
+import cp1.solution.TM;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Random two-resource transactions over a large pool in which a
+ * handful of resources take a given share of the accesses. Runs
+ * once without and once with the contention profiler, prints both
+ * results and the profiler's report, which should name the hot
+ * resources.
+ * Usage: ContentionProfilerBenchmark [threads] [resources] [hotShare] [seconds]
+ */
+public class ContentionProfilerBenchmark {
+    private static final int HOT = 8;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        double hotShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.3;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+
+        BenchResource[] all = BenchHarness.resources(size);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TM tm = (TM) TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        // Hot resources spread over the pool rather than at its start.
+        int stride = size / HOT;
+
+        BenchHarness.Body body = (m, random) -> {
+            m.startTransaction();
+            for (int i = 0; i < 2; i++) {
+                int r = random.nextDouble() < hotShare ? random.nextInt(HOT) * stride + stride / 2
+                        : random.nextInt(size);
+                m.operateOnResourceInCurrentTransaction(ids[r], IncOp.get());
+            }
+            m.commitCurrentTransaction();
+        };
+
+        BenchHarness.run(tm, threads, seconds / 2, body);
+        System.out.println("profiler off\t" + BenchHarness.run(tm, threads, seconds, body));
+        tm.startProfiling(16, 4);
+        System.out.println("profiler on\t" + BenchHarness.run(tm, threads, seconds, body));
+        ContentionReport report = tm.getContentionReport();
+        tm.stopProfiling();
+
+        System.out.println("hot resources\t" + report.getHotResources());
+        System.out.println("victims\t\t" + report.getVictims());
+        System.out.println("longest chains\t" + report.getLongestWaitChains());
+    }
+}
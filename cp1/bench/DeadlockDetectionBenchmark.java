@@ -0,0 +1,94 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Measures how long it takes to break a wait ring of
+ * growing length, and to break many disjoint two-transaction
+ * cycles that close at the same time.
+ * Usage: DeadlockDetectionBenchmark [maxRingLength] [maxCycles] [rounds]
+ */
+public class DeadlockDetectionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxRing = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int maxCycles = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        System.out.println("ring length\tresolve us");
+        for (int n = 2; n <= maxRing; n *= 2) {
+            final int length = n;
+            System.out.printf("%d\t%.1f%n", n, best(rounds, () -> ring(length, 1)));
+        }
+
+        System.out.println("cycles\tresolve us");
+        for (int c = 1; c <= maxCycles; c *= 4) {
+            final int rings = c;
+            System.out.printf("%d\t%.1f%n", c, best(rounds, () -> ring(2, rings)));
+        }
+    }
+
+    interface Round {
+        long run() throws Exception;
+    }
+
+    private static double best(int rounds, Round round) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++)
+            best = Math.min(best, round.run());
+        return best / 1e3;
+    }
+
+    // Builds the given number of disjoint rings of length n, lets them close
+    // and returns the nanoseconds until every ring has been broken and drained.
+    private static long ring(int n, int rings) throws Exception {
+        int size = n * rings;
+        List<Resource> resources = new ArrayList<>(size);
+        ResourceId[] ids = new ResourceId[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = new BenchResourceId(i);
+            resources.add(new BenchResource(ids[i]));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, new AtomicLong()::incrementAndGet);
+
+        CountDownLatch allHold = new CountDownLatch(size);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[size];
+        for (int i = 0; i < size; i++) {
+            final ResourceId mine = ids[i];
+            final ResourceId next = ids[(i / n) * n + (i + 1) % n];
+            workers[i] = new Thread(() -> {
+                try {
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(mine, IncOp.get());
+                    allHold.countDown();
+                    go.await();
+                    tm.operateOnResourceInCurrentTransaction(next, IncOp.get());
+                    tm.commitCurrentTransaction();
+                } catch (ActiveTransactionAborted e) {
+                    // The victim of its ring.
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            });
+            workers[i].start();
+        }
+        allHold.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread w : workers)
+            w.join();
+        return System.nanoTime() - start;
+    }
+}
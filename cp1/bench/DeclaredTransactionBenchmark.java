@@ -0,0 +1,48 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Compares transactions that acquire random resources on first use
+ * with transactions that declare the same kind of resource set up
+ * front, under high contention. Dynamic transactions run deadlock
+ * detection whenever they wait and are aborted and retried when
+ * they take part in a deadlock; declared ones do neither.
+ * Usage: DeclaredTransactionBenchmark [threads] [resources] [operationsPerTransaction] [seconds]
+ */
+public class DeclaredTransactionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int perTransaction = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 3;
+
+        BenchResource[] all = BenchHarness.resources(size);
+        ResourceId[] ids = BenchHarness.ids(all);
+
+        TransactionManager dynamic = TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        System.out.println("dynamic\t" + BenchHarness.run(dynamic, threads, seconds, (m, random) -> {
+            m.startTransaction();
+            for (int i = 0; i < perTransaction; i++)
+                m.operateOnResourceInCurrentTransaction(ids[random.nextInt(size)], IncOp.get());
+            m.commitCurrentTransaction();
+        }));
+
+        TransactionManager declared = TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        System.out.println("declared\t" + BenchHarness.run(declared, threads, seconds, (m, random) -> {
+            List<ResourceId> set = new ArrayList<>(perTransaction);
+            for (int i = 0; i < perTransaction; i++)
+                set.add(ids[random.nextInt(size)]);
+            m.startTransaction(set);
+            for (int i = 0; i < perTransaction; i++)
+                m.operateOnResourceInCurrentTransaction(set.get(i), IncOp.get());
+            m.commitCurrentTransaction();
+        }));
+    }
+}
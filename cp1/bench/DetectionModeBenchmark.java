@@ -0,0 +1,92 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.DeadlockDetection;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Compares the deadlock detection strategies on random
+ * transactions over a small resource pool. Reports throughput,
+ * the number of aborts and the mean time a victim spent in the
+ * operation that got aborted.
+ * Usage: DetectionModeBenchmark [threads] [resources] [intervalMillis] [seconds]
+ */
+public class DetectionModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        long interval = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+        System.out.println("detection\ttx/s\taborts\tabort latency us");
+        for (DeadlockDetection detection : DeadlockDetection.values())
+            run(detection, threads, size, interval, seconds);
+    }
+
+    private static void run(DeadlockDetection detection, int threads, int size, long interval, double seconds)
+            throws Exception {
+        List<Resource> resources = new ArrayList<>(size);
+        ResourceId[] ids = new ResourceId[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = new BenchResourceId(i);
+            resources.add(new BenchResource(ids[i]));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(
+                resources, System::nanoTime, detection, interval);
+
+        long[] commits = new long[threads];
+        long[] aborts = new long[threads];
+        long[] abortNanos = new long[threads];
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int me = t;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (System.nanoTime() < deadline) {
+                        tm.startTransaction();
+                        long opStart = 0;
+                        try {
+                            for (int k = 0; k < 3; k++) {
+                                opStart = System.nanoTime();
+                                tm.operateOnResourceInCurrentTransaction(ids[random.nextInt(size)], IncOp.get());
+                            }
+                            tm.commitCurrentTransaction();
+                            commits[me]++;
+                        } catch (ActiveTransactionAborted e) {
+                            abortNanos[me] += System.nanoTime() - opStart;
+                            aborts[me]++;
+                        } finally {
+                            tm.rollbackCurrentTransaction();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+        }
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+
+        long committed = 0;
+        long aborted = 0;
+        long nanos = 0;
+        for (int t = 0; t < threads; t++) {
+            committed += commits[t];
+            aborted += aborts[t];
+            nanos += abortNanos[t];
+        }
+        System.out.printf("%s\t%.0f\t%d\t%.1f%n", detection, committed / seconds, aborted,
+                aborted == 0 ? 0.0 : nanos / 1e3 / aborted);
+    }
+}
@@ -0,0 +1,39 @@
+package cp1.bench;
+
+import cp1.base.ResourceId;
+
+// Resource id without an ordinal, resolved through equals/hashCode.
+final class HashedResourceId implements ResourceId {
+    private final int value;
+
+    HashedResourceId(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public int compareTo(ResourceId other) {
+        if (!(other instanceof HashedResourceId))
+            throw new RuntimeException("Comparing incompatible resource IDs");
+
+        return Integer.compare(value, ((HashedResourceId) other).value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof HashedResourceId))
+            return false;
+
+        return value == ((HashedResourceId) obj).value;
+    }
+
+    @Override
+    public int hashCode() {
+        // Spread the bits so that consecutive ids do not land in consecutive buckets.
+        return value * 0x9E3779B9;
+    }
+
+    @Override
+    public String toString() {
+        return "H" + value;
+    }
+}
@@ -0,0 +1,31 @@
+package cp1.bench;
+
+import cp1.base.Resource;
+import cp1.base.ResourceOperation;
+
+// Increment operation in the style of the demo's ResourceOpImpl.
+final class IncOp extends ResourceOperation {
+    private static final IncOp singleton = new IncOp();
+
+    static ResourceOperation get() {
+        return singleton;
+    }
+
+    private IncOp() {
+    }
+
+    @Override
+    public String toString() {
+        return "INC";
+    }
+
+    @Override
+    public void execute(Resource r) {
+        ((BenchResource) r).incValue();
+    }
+
+    @Override
+    public void undo(Resource r) {
+        ((BenchResource) r).decValue();
+    }
+}
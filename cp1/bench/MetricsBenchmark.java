@@ -0,0 +1,66 @@
+package cp1.bench;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import cp1.base.ResourceId;
+import cp1.solution.TM;
+import cp1.solution.TMMetricsSnapshot;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Runs the uncontended single-thread loop of UncontendedAcquireBenchmark
+ * and a contended random workload with metrics collected, then prints
+ * the snapshot and reads a few attributes back over JMX. Run it against
+ * a build without metrics to see what they cost.
+ * Usage: MetricsBenchmark [transactions] [threads] [seconds]
+ */
+public class MetricsBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+
+        BenchResource[] all = BenchHarness.resources(1024);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TM tm = (TM) TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            int next = 0;
+            for (int t = 0; t < transactions; t++) {
+                tm.startTransaction();
+                for (int i = 0; i < 4; i++) {
+                    tm.operateOnResourceInCurrentTransaction(ids[next], IncOp.get());
+                    next = (next + 1) % ids.length;
+                }
+                tm.commitCurrentTransaction();
+            }
+            if (round == 1)
+                System.out.printf("uncontended ns/op\t%.1f%n", (System.nanoTime() - start) / (4.0 * transactions));
+        }
+
+        BenchResource[] hot = BenchHarness.resources(16);
+        ResourceId[] hotIds = BenchHarness.ids(hot);
+        TM contended = (TM) TransactionManagerFactory.newTM(BenchHarness.asList(hot), System::nanoTime);
+        System.out.println("contended\t" + BenchHarness.run(contended, threads, seconds, (m, random) -> {
+            m.startTransaction();
+            for (int i = 0; i < 3; i++)
+                m.operateOnResourceInCurrentTransaction(hotIds[random.nextInt(hotIds.length)], IncOp.get());
+            m.commitCurrentTransaction();
+        }));
+
+        TMMetricsSnapshot snapshot = contended.getMetrics();
+        System.out.println(snapshot);
+        System.out.println("waits by resource\t" + snapshot.getWaitsByResource());
+
+        ObjectName name = contended.registerMXBean("contended");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        System.out.println("JMX Commits\t" + server.getAttribute(name, "Commits"));
+        System.out.println("JMX Victims\t" + server.getAttribute(name, "Victims"));
+        server.unregisterMBean(name);
+    }
+}
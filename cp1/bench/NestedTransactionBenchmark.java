@@ -0,0 +1,135 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.SubTransaction;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * One large transaction applying a CPU-heavy operation to each of a
+ * number of resources, either one after another on the transaction's
+ * thread or split among sub-transactions run by a thread pool. Half
+ * of the resources are declared up front and the other half acquired
+ * by the sub-transactions. Checks the resulting values, including
+ * those of a parallel run that is rolled back.
+ * Usage: NestedTransactionBenchmark [resources] [workers] [spinsPerOperation] [rounds]
+ */
+public class NestedTransactionBenchmark {
+
+    // Increment preceded by some arithmetic the JIT cannot drop.
+    private static final class HeavyIncOp extends ResourceOperation {
+        private final int spins;
+        volatile long sink;
+
+        HeavyIncOp(int spins) {
+            this.spins = spins;
+        }
+
+        @Override
+        public String toString() {
+            return "HEAVY_INC";
+        }
+
+        @Override
+        public void execute(Resource r) {
+            long x = r.getId().hashCode();
+            for (int i = 0; i < spins; i++)
+                x = x * 6364136223846793005L + 1442695040888963407L;
+            sink = x;
+            ((BenchResource) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            ((BenchResource) r).decValue();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int spins = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        BenchResource[] all = BenchHarness.resources(size);
+        ResourceId[] ids = BenchHarness.ids(all);
+        List<ResourceId> declared = Arrays.asList(ids).subList(0, size / 2);
+        TransactionManager tm = TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        HeavyIncOp op = new HeavyIncOp(spins);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                for (int r = 0; r < rounds; r++) {
+                    tm.startTransaction(declared);
+                    for (ResourceId rid : ids)
+                        tm.operateOnResourceInCurrentTransaction(rid, op);
+                    tm.commitCurrentTransaction();
+                }
+                long sequential = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int r = 0; r < rounds; r++) {
+                    tm.startTransaction(declared);
+                    runChildren(tm, pool, workers, ids, op, true);
+                    tm.commitCurrentTransaction();
+                }
+                long parallel = System.nanoTime() - start;
+
+                if (round == 1) {
+                    System.out.printf("sequential ms/tx\t%.2f%n", sequential / 1e6 / rounds);
+                    System.out.printf("%d sub-transactions ms/tx\t%.2f%n", workers, parallel / 1e6 / rounds);
+                }
+            }
+
+            tm.startTransaction(declared);
+            runChildren(tm, pool, workers, ids, op, true);
+            tm.rollbackCurrentTransaction();
+            tm.startTransaction();
+            runChildren(tm, pool, workers, ids, op, false);
+            tm.commitCurrentTransaction();
+        } finally {
+            pool.shutdown();
+        }
+
+        long expected = 4L * rounds;
+        for (BenchResource r : all) {
+            if (r.getValue() != expected)
+                throw new AssertionError(r.getId() + " is " + r.getValue() + " instead of " + expected);
+        }
+    }
+
+    // Applies the operation to every resource, split among sub-transactions
+    // that commit, or roll back if commit is false.
+    private static void runChildren(TransactionManager tm, ExecutorService pool, int workers,
+                                    ResourceId[] ids, ResourceOperation op, boolean commit) throws Exception {
+        List<Future<?>> done = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            SubTransaction child = tm.startSubTransaction();
+            int from = ids.length * w / workers;
+            int to = ids.length * (w + 1) / workers;
+            done.add(pool.submit(() -> {
+                try {
+                    for (int i = from; i < to; i++)
+                        child.operateOnResource(ids[i], op);
+                    if (commit)
+                        child.commit();
+                } finally {
+                    child.rollback();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : done)
+            f.get();
+    }
+}
@@ -0,0 +1,66 @@
+package cp1.bench;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Compares the pessimistic and the optimistic transaction managers
+ * across conflict rates. Each transaction applies four operations,
+ * a quarter of them writes, to resources drawn from a small hot set
+ * with a given probability and from a large cold set otherwise.
+ * The committed writes are checked against the final counter totals.
+ * Usage: OptimisticBenchmark [threads] [seconds]
+ */
+public class OptimisticBenchmark {
+    private static final int HOT = 4;
+    private static final int COLD = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+
+        // Warm-up, not reported.
+        run(false, threads, seconds / 2, 0.1);
+        run(true, threads, seconds / 2, 0.1);
+
+        for (double hot : new double[] {0, 0.01, 0.1, 0.5}) {
+            System.out.println("hot=" + hot + "\tpessimistic\t" + run(false, threads, seconds, hot));
+            System.out.println("hot=" + hot + "\toptimistic\t" + run(true, threads, seconds, hot));
+        }
+    }
+
+    private static BenchHarness.Result run(boolean optimistic, int threads, double seconds, double hot)
+            throws Exception {
+        BenchResource[] all = BenchHarness.resources(HOT + COLD);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TransactionManager tm = optimistic
+                ? TransactionManagerFactory.newOptimisticTM(BenchHarness.asList(all), System::nanoTime)
+                : TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        LongAdder committedWrites = new LongAdder();
+        BenchHarness.Result result = BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            int writes = 0;
+            m.startTransaction();
+            for (int i = 0; i < 4; i++) {
+                ResourceId rid = random.nextDouble() < hot ? ids[random.nextInt(HOT)] : ids[HOT + random.nextInt(COLD)];
+                if (random.nextInt(4) == 0) {
+                    m.operateOnResourceInCurrentTransaction(rid, IncOp.get());
+                    writes++;
+                } else {
+                    m.operateOnResourceInCurrentTransaction(rid, ReadOp.get());
+                }
+            }
+            m.commitCurrentTransaction();
+            committedWrites.add(writes);
+        });
+
+        long total = 0;
+        for (BenchResource r : all)
+            total += r.getValue();
+        if (total != committedWrites.sum())
+            throw new AssertionError("lost update: " + total + " != " + committedWrites.sum());
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+package cp1.bench;
+
+import cp1.base.ReadOnlyOperation;
+import cp1.base.Resource;
+import cp1.base.ResourceOperation;
+
+// Reads a counter. Declared read-only unless made with exclusive(),
+// so the same work can be run under both locking modes.
+final class ReadOp extends ResourceOperation {
+    private static final ResourceOperation shared = new SharedReadOp();
+    private static final ResourceOperation exclusive = new ReadOp();
+
+    static ResourceOperation get() {
+        return shared;
+    }
+
+    static ResourceOperation exclusive() {
+        return exclusive;
+    }
+
+    private ReadOp() {
+    }
+
+    @Override
+    public String toString() {
+        return "READ";
+    }
+
+    @Override
+    public void execute(Resource r) {
+        ((BenchResource) r).getValue();
+    }
+
+    @Override
+    public void undo(Resource r) {
+    }
+
+    private static final class SharedReadOp extends ResourceOperation implements ReadOnlyOperation {
+        @Override
+        public String toString() {
+            return "READ";
+        }
+
+        @Override
+        public void execute(Resource r) {
+            ((BenchResource) r).getValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+        }
+    }
+}
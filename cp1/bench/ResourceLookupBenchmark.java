@@ -0,0 +1,60 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Measures the cost of an operation on a random
+ * resource as the number of managed resources grows,
+ * for both ordinal and hashed resource ids.
+ * Usage: ResourceLookupBenchmark [opsPerSize]
+ */
+public class ResourceLookupBenchmark {
+    private static final int[] SIZES = {16, 1024, 65536, 1 << 20};
+    private static final int OPS_PER_TRANSACTION = 4096;
+
+    public static void main(String[] args) throws Exception {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        System.out.println("resources\tindexed ns/op\thashed ns/op");
+        for (int size : SIZES) {
+            double indexed = run(size, ops, true);
+            double hashed = run(size, ops, false);
+            System.out.printf("%d\t%.1f\t%.1f%n", size, indexed, hashed);
+        }
+    }
+
+    private static double run(int size, int ops, boolean indexed) throws Exception {
+        List<Resource> resources = new ArrayList<>(size);
+        ResourceId[] ids = new ResourceId[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = indexed ? new BenchResourceId(i) : new HashedResourceId(i);
+            resources.add(new BenchResource(ids[i]));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, System::currentTimeMillis);
+
+        // A transaction keeps what it touches, so stick to a few resources per transaction.
+        Random random = new Random(size);
+        ResourceId[] touched = new ResourceId[8];
+        long start = 0;
+        int warmup = ops / 4;
+        for (int done = -warmup; done < ops; done += OPS_PER_TRANSACTION) {
+            if (done >= 0 && start == 0)
+                start = System.nanoTime();
+
+            for (int i = 0; i < touched.length; i++)
+                touched[i] = ids[random.nextInt(size)];
+
+            tm.startTransaction();
+            for (int i = 0; i < OPS_PER_TRANSACTION; i++)
+                tm.operateOnResourceInCurrentTransaction(touched[i & 7], IncOp.get());
+            tm.commitCurrentTransaction();
+        }
+        return (double) (System.nanoTime() - start) / ops;
+    }
+}
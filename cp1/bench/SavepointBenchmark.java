@@ -0,0 +1,90 @@
+package cp1.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.Savepoint;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Long transactions whose last operation fails with a given
+ * probability. On a failure the transaction is either rolled back
+ * and run again from the start, or rolled back to a savepoint taken
+ * before the last operation, which is then retried. Checks that the
+ * resources end up with exactly the committed increments.
+ * Usage: SavepointBenchmark [threads] [seconds] [operations] [failureProbability]
+ */
+public class SavepointBenchmark {
+    private static final int RESOURCES = 4096;
+
+    // Increment that fails before doing anything with a given probability.
+    private static final class FlakyIncOp extends ResourceOperation {
+        private final double failureProbability;
+
+        FlakyIncOp(double failureProbability) {
+            this.failureProbability = failureProbability;
+        }
+
+        @Override
+        public String toString() {
+            return "FLAKY_INC";
+        }
+
+        @Override
+        public void execute(Resource r) throws ResourceOperationException {
+            if (ThreadLocalRandom.current().nextDouble() < failureProbability)
+                throw new ResourceOperationException(r.getId(), this);
+            ((BenchResource) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            ((BenchResource) r).decValue();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        double failureProbability = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+        FlakyIncOp flaky = new FlakyIncOp(failureProbability);
+
+        for (boolean savepoints : new boolean[] { false, true }) {
+            BenchResource[] all = BenchHarness.resources(RESOURCES);
+            ResourceId[] ids = BenchHarness.ids(all);
+            TransactionManager tm = TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+            BenchHarness.Result result = BenchHarness.run(tm, threads, seconds, (m, random) -> {
+                while (true) {
+                    m.startTransaction();
+                    for (int i = 0; i < operations; i++)
+                        m.operateOnResourceInCurrentTransaction(ids[random.nextInt(ids.length)], IncOp.get());
+                    Savepoint savepoint = savepoints ? m.createSavepoint() : null;
+                    while (true) {
+                        try {
+                            m.operateOnResourceInCurrentTransaction(ids[random.nextInt(ids.length)], flaky);
+                            m.commitCurrentTransaction();
+                            return;
+                        } catch (ResourceOperationException e) {
+                            if (!savepoints)
+                                break;
+                            m.rollbackToSavepoint(savepoint, true);
+                        }
+                    }
+                    m.rollbackCurrentTransaction();
+                }
+            });
+            System.out.println((savepoints ? "savepoint\t" : "full rollback\t") + result);
+
+            long total = 0;
+            for (BenchResource r : all)
+                total += r.getValue();
+            if (total != result.commits * (operations + 1))
+                throw new AssertionError(total + " increments for " + result.commits + " commits");
+        }
+    }
+}
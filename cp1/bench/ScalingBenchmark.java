@@ -0,0 +1,90 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Runs transactions on random pairs of resources with
+ * 1 to N threads and reports throughput and abort counts.
+ * Checks at the end that committed increments match the
+ * resource values, so a broken wait-for graph shows up
+ * as a hang or a wrong total.
+ * Usage: ScalingBenchmark [maxThreads] [resources] [seconds]
+ */
+public class ScalingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : 2 * Runtime.getRuntime().availableProcessors();
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+        System.out.println("threads\ttx/s\taborts");
+        for (int threads = 1; threads <= maxThreads; threads *= 2)
+            run(threads, size, seconds);
+    }
+
+    private static void run(int threads, int size, double seconds) throws Exception {
+        List<Resource> resources = new ArrayList<>(size);
+        BenchResource[] all = new BenchResource[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = new BenchResource(new BenchResourceId(i));
+            resources.add(all[i]);
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, System::nanoTime);
+
+        long[] commits = new long[threads];
+        long[] aborts = new long[threads];
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int me = t;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (System.nanoTime() < deadline) {
+                        ResourceId first = all[random.nextInt(size)].getId();
+                        ResourceId second = all[random.nextInt(size)].getId();
+                        tm.startTransaction();
+                        try {
+                            tm.operateOnResourceInCurrentTransaction(first, IncOp.get());
+                            tm.operateOnResourceInCurrentTransaction(second, IncOp.get());
+                            tm.commitCurrentTransaction();
+                            commits[me]++;
+                        } catch (ActiveTransactionAborted e) {
+                            aborts[me]++;
+                        } finally {
+                            tm.rollbackCurrentTransaction();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+        }
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+
+        long committed = 0;
+        long aborted = 0;
+        for (int t = 0; t < threads; t++) {
+            committed += commits[t];
+            aborted += aborts[t];
+        }
+        long total = 0;
+        for (BenchResource r : all)
+            total += r.getValue();
+        if (total != 2 * committed)
+            throw new AssertionError("Expected " + 2 * committed + " increments, found " + total);
+
+        System.out.printf("%d\t%.0f\t%d%n", threads, committed / seconds, aborted);
+    }
+}
@@ -0,0 +1,62 @@
+package cp1.bench;
+
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Transactions on random pairs of resources, run on a plain manager
+ * and on sharded ones, with 1 to N threads. With probability
+ * crossShard a pair is drawn from two different shards, otherwise
+ * from one shard, the one the thread is assigned to; on the plain
+ * manager the same pairs are used. Reports throughput and aborts
+ * and checks that the committed increments match the resources.
+ * Usage: ShardedBenchmark [maxThreads] [shards] [crossShard] [seconds]
+ */
+public class ShardedBenchmark {
+    private static final int RESOURCES = 4096;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : 2 * Runtime.getRuntime().availableProcessors();
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(2, maxThreads);
+        double crossShard = args.length > 2 ? Double.parseDouble(args[2]) : 0.05;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+
+        System.out.println("manager\tthreads\tresult");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int shardCount : new int[] { 0, shards })
+                run(shardCount, shards, threads, crossShard, seconds);
+        }
+    }
+
+    // A plain manager if shardCount is 0. The pairs depend only on shards.
+    private static void run(int shardCount, int shards, int threads, double crossShard, double seconds)
+            throws Exception {
+        BenchResource[] all = BenchHarness.resources(RESOURCES);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TransactionManager tm = shardCount == 0
+                ? TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime)
+                : TransactionManagerFactory.newShardedTM(BenchHarness.asList(all), System::nanoTime, shardCount);
+
+        // BenchResourceId hashes to its index, so resource i is in shard i mod shards.
+        int perShard = RESOURCES / shards;
+        BenchHarness.Result result = BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            int home = (int) (Thread.currentThread().threadId() % shards);
+            int second = home;
+            if (shards > 1 && random.nextDouble() < crossShard)
+                second = (home + 1 + random.nextInt(shards - 1)) % shards;
+            m.startTransaction();
+            m.operateOnResourceInCurrentTransaction(ids[home + shards * random.nextInt(perShard)], IncOp.get());
+            m.operateOnResourceInCurrentTransaction(ids[second + shards * random.nextInt(perShard)], IncOp.get());
+            m.commitCurrentTransaction();
+        });
+        System.out.println((shardCount == 0 ? "plain" : shardCount + " shards") + "\t" + threads + "\t" + result);
+
+        long total = 0;
+        for (BenchResource r : all)
+            total += r.getValue();
+        if (total != 2 * result.commits)
+            throw new AssertionError("Expected " + 2 * result.commits + " increments, found " + total);
+    }
+}
@@ -0,0 +1,51 @@
+package cp1.bench;
+
+import java.util.concurrent.locks.LockSupport;
+
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Read-mostly transactions over a few hot resources, with reads
+ * declared read-only (shared holds) or not (exclusive holds), for
+ * growing numbers of threads. Each transaction reads a few resources,
+ * updates one of them with a given probability and stays in the
+ * transaction for a short pause, standing in for work done between
+ * operations, so shared holds can overlap even on a single core.
+ * Usage: SharedLockBenchmark [maxThreads] [resources] [writePercent] [pauseMicros] [seconds]
+ */
+public class SharedLockBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int writePercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long pauseNanos = (args.length > 3 ? Long.parseLong(args[3]) : 20) * 1000;
+        double seconds = args.length > 4 ? Double.parseDouble(args[4]) : 2;
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.println("threads=" + threads + "\texclusive\t"
+                    + run(threads, size, writePercent, pauseNanos, seconds, ReadOp.exclusive()));
+            System.out.println("threads=" + threads + "\tshared\t\t"
+                    + run(threads, size, writePercent, pauseNanos, seconds, ReadOp.get()));
+        }
+    }
+
+    private static BenchHarness.Result run(int threads, int size, int writePercent, long pauseNanos,
+                                           double seconds, ResourceOperation read) throws Exception {
+        BenchResource[] all = BenchHarness.resources(size);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TransactionManager tm = TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        return BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            m.startTransaction();
+            for (int i = 0; i < 3; i++)
+                m.operateOnResourceInCurrentTransaction(ids[random.nextInt(size)], read);
+            if (random.nextInt(100) < writePercent)
+                m.operateOnResourceInCurrentTransaction(ids[random.nextInt(size)], IncOp.get());
+            LockSupport.parkNanos(pauseNanos);
+            m.commitCurrentTransaction();
+        });
+    }
+}
@@ -0,0 +1,56 @@
+package cp1.bench;
+
+import cp1.base.ResourceId;
+import cp1.solution.TM;
+import cp1.solution.TMMetricsSnapshot;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Short transactions that each increment one of a few hot resources,
+ * so that holds last a few hundred nanoseconds and most acquisitions
+ * find the resource held. Runs with waiters parking at once or spinning
+ * first, on fair and on unfair resources, and reports latency and how
+ * the acquisitions that found the resource held got it. Spinning only
+ * pays off when the holder runs on another core; with one processor it
+ * can only lose.
+ * Usage: SpinBenchmark [threads] [hotResources] [seconds]
+ */
+public class SpinBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0])
+                : 2 * Runtime.getRuntime().availableProcessors();
+        int hot = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+
+        System.out.println("waiting\tresources\tresult");
+        for (boolean spinning : new boolean[] { false, true }) {
+            for (boolean fair : new boolean[] { true, false })
+                run(threads, hot, seconds, spinning, fair);
+        }
+    }
+
+    private static void run(int threads, int hot, double seconds, boolean spinning, boolean fair)
+            throws Exception {
+        BenchResource[] all = BenchHarness.resources(hot);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TM tm = (TM) TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        tm.setSpinning(spinning);
+        for (ResourceId rid : ids)
+            tm.setFair(rid, fair);
+
+        BenchHarness.Result result = BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            m.startTransaction();
+            m.operateOnResourceInCurrentTransaction(ids[random.nextInt(hot)], IncOp.get());
+            m.commitCurrentTransaction();
+        });
+        TMMetricsSnapshot metrics = tm.getMetrics();
+        System.out.printf("%s\t%s\t%s\tspun %d\tqueued %d%n", spinning ? "spin" : "park",
+                fair ? "fair" : "unfair", result, metrics.getSpinAcquires(), metrics.getContendedAcquires());
+
+        long total = 0;
+        for (BenchResource r : all)
+            total += r.getValue();
+        if (total != result.commits)
+            throw new AssertionError("Expected " + result.commits + " increments, found " + total);
+    }
+}
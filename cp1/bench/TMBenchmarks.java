@@ -0,0 +1,137 @@
+package cp1.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Benchmark suite for transaction managers made by
+ * TransactionManagerFactory.newTM. Every case runs for a fixed
+ * time and prints throughput, abort rate and latency percentiles,
+ * so runs before and after a change can be compared line by line.
+ * Cases:
+ *   uncontended  each thread works on its own resources
+ *   hotspot      every transaction touches one of a few hot resources
+ *   random       random pairs, a given fraction taken out of order,
+ *                which is what makes deadlocks possible
+ *   rollback     long transactions of which most are rolled back
+ *   scaling      random pairs across thread and resource counts
+ * Usage: TMBenchmarks [case|all] [threads] [seconds] [deadlockProbability]
+ * Build and run without a build tool:
+ *   javac -d out $(find cp1 -name '*.java') && java -cp out cp1.bench.TMBenchmarks
+ */
+public class TMBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        String which = args.length > 0 ? args[0] : "all";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+        double deadlockProbability = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+
+        if (which.equals("all") || which.equals("uncontended"))
+            report("uncontended", uncontended(threads, seconds));
+        if (which.equals("all") || which.equals("hotspot"))
+            report("hotspot", hotspot(threads, seconds, 4));
+        if (which.equals("all") || which.equals("random"))
+            report("random p=" + deadlockProbability, random(threads, seconds, 256, deadlockProbability));
+        if (which.equals("all") || which.equals("rollback"))
+            report("rollback", rollback(threads, seconds, 0.9));
+        if (which.equals("all") || which.equals("scaling")) {
+            int maxThreads = Math.max(threads, 2 * Runtime.getRuntime().availableProcessors());
+            for (int size = 64; size <= 65536; size *= 32) {
+                for (int t = 1; t <= maxThreads; t *= 2)
+                    report("scaling threads=" + t + " resources=" + size,
+                            random(t, seconds, size, deadlockProbability));
+            }
+        }
+    }
+
+    private static void report(String name, BenchHarness.Result result) {
+        System.out.println(name + "\t" + result);
+    }
+
+    private static TransactionManager newTM(BenchResource[] all) {
+        return TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+    }
+
+    // Every thread operates on two resources nobody else touches.
+    static BenchHarness.Result uncontended(int threads, double seconds) throws Exception {
+        BenchResource[] all = BenchHarness.resources(2 * threads);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TransactionManager tm = newTM(all);
+        ThreadLocal<Integer> slot = new ThreadLocal<>();
+        int[] next = {0};
+        return BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            Integer mine = slot.get();
+            if (mine == null) {
+                synchronized (next) {
+                    mine = next[0]++;
+                }
+                slot.set(mine);
+            }
+            m.startTransaction();
+            m.operateOnResourceInCurrentTransaction(ids[2 * mine], IncOp.get());
+            m.operateOnResourceInCurrentTransaction(ids[2 * mine + 1], IncOp.get());
+            m.commitCurrentTransaction();
+        });
+    }
+
+    // Each transaction updates one private-ish cold resource and one of a few hot ones,
+    // always cold first, so it queues on the hot resource while holding the cold one.
+    static BenchHarness.Result hotspot(int threads, double seconds, int hot) throws Exception {
+        int cold = 1024;
+        BenchResource[] all = BenchHarness.resources(hot + cold);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TransactionManager tm = newTM(all);
+        return BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            m.startTransaction();
+            m.operateOnResourceInCurrentTransaction(ids[hot + random.nextInt(cold)], IncOp.get());
+            m.operateOnResourceInCurrentTransaction(ids[random.nextInt(hot)], IncOp.get());
+            m.commitCurrentTransaction();
+        });
+    }
+
+    // Random pairs of resources, taken in ascending order except for
+    // a given fraction of transactions that take them in descending order.
+    static BenchHarness.Result random(int threads, double seconds, int size, double deadlockProbability)
+            throws Exception {
+        BenchResource[] all = BenchHarness.resources(size);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TransactionManager tm = newTM(all);
+        return BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            int a = random.nextInt(size);
+            int b = random.nextInt(size);
+            boolean reversed = random.nextDouble() < deadlockProbability;
+            int first = reversed ? Math.max(a, b) : Math.min(a, b);
+            int second = reversed ? Math.min(a, b) : Math.max(a, b);
+            m.startTransaction();
+            m.operateOnResourceInCurrentTransaction(ids[first], IncOp.get());
+            m.operateOnResourceInCurrentTransaction(ids[second], IncOp.get());
+            m.commitCurrentTransaction();
+        });
+    }
+
+    // Sixteen-operation transactions, a given fraction of which is rolled back.
+    // Rolled back transactions are reported as commits, since the rollback is
+    // the work being measured.
+    static BenchHarness.Result rollback(int threads, double seconds, double rollbackProbability)
+            throws Exception {
+        int size = 64 * threads;
+        BenchResource[] all = BenchHarness.resources(size);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TransactionManager tm = newTM(all);
+        return BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            ResourceId first = ids[random.nextInt(size)];
+            m.startTransaction();
+            for (int i = 0; i < 16; i++)
+                m.operateOnResourceInCurrentTransaction(i % 4 == 0 ? ids[random.nextInt(size)] : first,
+                        IncOp.get());
+            if (random.nextDouble() < rollbackProbability)
+                m.rollbackCurrentTransaction();
+            else
+                m.commitCurrentTransaction();
+        });
+    }
+}
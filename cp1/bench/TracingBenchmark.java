@@ -0,0 +1,75 @@
+package cp1.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import cp1.base.ResourceId;
+import cp1.solution.TM;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Runs the uncontended single-thread loop of UncontendedAcquireBenchmark
+ * with tracing never started, on, and stopped again, then a contended
+ * random workload with tracing on, and writes that trace to a file that
+ * cp1.demo.TraceDecoder can print.
+ * Usage: TracingBenchmark [transactions] [threads] [seconds] [eventsPerThread] [dumpFile]
+ */
+public class TracingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+        int eventsPerThread = args.length > 3 ? Integer.parseInt(args[3]) : 1 << 16;
+        File dumpFile = new File(args.length > 4 ? args[4] : "tm-trace.bin");
+
+        BenchResource[] all = BenchHarness.resources(1024);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TM tm = (TM) TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+
+        uncontended(tm, ids, transactions, "never started");
+        tm.startTracing(eventsPerThread);
+        uncontended(tm, ids, transactions, "on");
+        tm.stopTracing();
+        uncontended(tm, ids, transactions, "stopped");
+
+        BenchResource[] hot = BenchHarness.resources(16);
+        ResourceId[] hotIds = BenchHarness.ids(hot);
+        TM contended = (TM) TransactionManagerFactory.newTM(BenchHarness.asList(hot), System::nanoTime);
+        BenchHarness.Body body = (m, random) -> {
+            m.startTransaction();
+            for (int i = 0; i < 3; i++)
+                m.operateOnResourceInCurrentTransaction(hotIds[random.nextInt(hotIds.length)], IncOp.get());
+            m.commitCurrentTransaction();
+        };
+        System.out.println("contended off\t" + BenchHarness.run(contended, threads, seconds, body));
+        contended.startTracing(eventsPerThread);
+        System.out.println("contended on\t" + BenchHarness.run(contended, threads, seconds, body));
+
+        long start = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(dumpFile))) {
+            contended.dumpTrace(out);
+        }
+        System.out.printf("dump\t%s\t%d bytes\t%.1f ms%n",
+                dumpFile, dumpFile.length(), (System.nanoTime() - start) / 1e6);
+    }
+
+    private static void uncontended(TM tm, ResourceId[] ids, int transactions, String label) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            int next = 0;
+            for (int t = 0; t < transactions; t++) {
+                tm.startTransaction();
+                for (int i = 0; i < 4; i++) {
+                    tm.operateOnResourceInCurrentTransaction(ids[next], IncOp.get());
+                    next = (next + 1) % ids.length;
+                }
+                tm.commitCurrentTransaction();
+            }
+            if (round == 1)
+                System.out.printf("uncontended %s ns/op\t%.1f%n", label, (System.nanoTime() - start) / (4.0 * transactions));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package cp1.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import cp1.base.Participant;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.GlobalTransaction;
+import cp1.solution.LoopbackTransport;
+import cp1.solution.TMParticipant;
+import cp1.solution.TransactionManagerFactory;
+import cp1.solution.TwoPhaseCoordinator;
+
+/**
+ * Latency of transactions incrementing two random resources: local
+ * transactions on one manager, global transactions on one participant,
+ * committed in one phase, and global transactions on two participants,
+ * committed with two-phase commit and a logged decision. The global
+ * ones are measured until every participant has committed, over a
+ * loopback transport with each of a few one-way delays. Checks the
+ * resource totals against the commits.
+ * Usage: TwoPhaseCommitBenchmark [threads] [seconds] [delayMicros...]
+ */
+public class TwoPhaseCommitBenchmark {
+    private static final int RESOURCES = 1024;
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        long[] delays = { 0, 50 };
+        if (args.length > 2) {
+            delays = new long[args.length - 2];
+            for (int i = 2; i < args.length; i++)
+                delays[i - 2] = Long.parseLong(args[i]);
+        }
+
+        BenchResource[] all = BenchHarness.resources(RESOURCES);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TransactionManager tm = TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        BenchHarness.Result local = BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            m.startTransaction();
+            m.operateOnResourceInCurrentTransaction(ids[random.nextInt(RESOURCES)], IncOp.get());
+            m.operateOnResourceInCurrentTransaction(ids[random.nextInt(RESOURCES)], IncOp.get());
+            m.commitCurrentTransaction();
+        });
+        check(all, local.commits * 2);
+        System.out.println("local\t\t" + local);
+
+        for (long delay : delays) {
+            for (int participants = 1; participants <= 2; participants++) {
+                Path directory = Files.createTempDirectory("tm-2pc");
+                try {
+                    run(directory, threads, seconds, delay, participants);
+                } finally {
+                    try (Stream<Path> files = Files.walk(directory)) {
+                        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run(Path directory, int threads, double seconds, long delay, int participants)
+            throws Exception {
+        BenchResource[][] all = new BenchResource[participants][];
+        ResourceId[][] ids = new ResourceId[participants][];
+        TMParticipant[] local = new TMParticipant[participants];
+        List<Participant> connected = new ArrayList<>();
+        try (LoopbackTransport transport = new LoopbackTransport(delay)) {
+            for (int p = 0; p < participants; p++) {
+                all[p] = BenchHarness.resources(RESOURCES);
+                ids[p] = BenchHarness.ids(all[p]);
+                local[p] = new TMParticipant(BenchHarness.asList(all[p]), System::nanoTime);
+                connected.add(transport.connect(local[p]));
+            }
+            TwoPhaseCoordinator coordinator = TwoPhaseCoordinator.open(connected, TIMEOUT_MILLIS, directory, 0);
+
+            // The harness rolls back on the manager it is given, which has
+            // nothing to roll back: aborted global transactions abort themselves.
+            BenchHarness.Result result = BenchHarness.run(local[0].getTransactionManager(), threads, seconds, (m, random) -> {
+                GlobalTransaction transaction = coordinator.begin();
+                transaction.operate(0, ids[0][random.nextInt(RESOURCES)], IncOp.get());
+                int second = participants - 1;
+                transaction.operate(second, ids[second][random.nextInt(RESOURCES)], IncOp.get());
+                transaction.commit().join();
+            });
+            System.out.printf("%d participant%s\tdelay %d us\t%s\tflushes/commit %.3f%n", participants,
+                    participants == 1 ? "" : "s", delay, result,
+                    (double) coordinator.getLogForces() / Math.max(1, result.commits));
+
+            // Aborts reach the participants in the background.
+            long total = 0;
+            for (int attempt = 0; attempt < 100; attempt++) {
+                total = 0;
+                for (BenchResource[] resources : all) {
+                    for (BenchResource r : resources)
+                        total += r.getValue();
+                }
+                if (total == 2 * result.commits)
+                    break;
+                Thread.sleep(10);
+            }
+            if (total != 2 * result.commits)
+                throw new AssertionError("Expected " + 2 * result.commits + " increments, found " + total);
+        }
+    }
+
+    private static void check(BenchResource[] all, long expected) {
+        long total = 0;
+        for (BenchResource r : all)
+            total += r.getValue();
+        if (total != expected)
+            throw new AssertionError("Expected " + expected + " increments, found " + total);
+    }
+}
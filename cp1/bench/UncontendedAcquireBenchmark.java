@@ -0,0 +1,61 @@
+package cp1.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Single-threaded transactions that each acquire a few
+ * free resources. Reports the time per operation and the
+ * bytes allocated per transaction by the calling thread.
+ * Usage: UncontendedAcquireBenchmark [transactions] [resourcesPerTransaction]
+ */
+public class UncontendedAcquireBenchmark {
+    private static final int RESOURCES = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int perTransaction = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        List<Resource> resources = new ArrayList<>(RESOURCES);
+        ResourceId[] ids = new ResourceId[RESOURCES];
+        for (int i = 0; i < RESOURCES; i++) {
+            ids[i] = new BenchResourceId(i);
+            resources.add(new BenchResource(ids[i]));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, System::currentTimeMillis);
+
+        run(tm, ids, transactions / 4, perTransaction);
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        run(tm, ids, transactions, perTransaction);
+        long nanos = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+
+        System.out.printf("ns/op\t%.1f%n", (double) nanos / ((long) transactions * perTransaction));
+        System.out.printf("bytes/tx\t%.1f%n", (double) bytes / transactions);
+    }
+
+    private static void run(TransactionManager tm, ResourceId[] ids, int transactions, int perTransaction)
+            throws Exception {
+        int next = 0;
+        for (int t = 0; t < transactions; t++) {
+            tm.startTransaction();
+            for (int i = 0; i < perTransaction; i++) {
+                tm.operateOnResourceInCurrentTransaction(ids[next], IncOp.get());
+                next = (next + 1) % ids.length;
+            }
+            tm.commitCurrentTransaction();
+        }
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+}
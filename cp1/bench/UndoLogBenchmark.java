@@ -0,0 +1,57 @@
+package cp1.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Single-threaded transactions with many operations each,
+ * half of them committed and half rolled back. Reports the
+ * time and the bytes allocated by the calling thread per
+ * operation, which is dominated by undo logging.
+ * Usage: UndoLogBenchmark [transactions] [opsPerTransaction]
+ */
+public class UndoLogBenchmark {
+    private static final int RESOURCES = 16;
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int perTransaction = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+        List<Resource> resources = new ArrayList<>(RESOURCES);
+        ResourceId[] ids = new ResourceId[RESOURCES];
+        for (int i = 0; i < RESOURCES; i++) {
+            ids[i] = new BenchResourceId(i);
+            resources.add(new BenchResource(ids[i]));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, System::currentTimeMillis);
+
+        run(tm, ids, transactions / 4, perTransaction);
+        long bytes = UncontendedAcquireBenchmark.allocatedBytes();
+        long start = System.nanoTime();
+        run(tm, ids, transactions, perTransaction);
+        long nanos = System.nanoTime() - start;
+        bytes = UncontendedAcquireBenchmark.allocatedBytes() - bytes;
+
+        long ops = (long) transactions * perTransaction;
+        System.out.printf("ns/op\t%.1f%n", (double) nanos / ops);
+        System.out.printf("bytes/op\t%.2f%n", (double) bytes / ops);
+    }
+
+    private static void run(TransactionManager tm, ResourceId[] ids, int transactions, int perTransaction)
+            throws Exception {
+        for (int t = 0; t < transactions; t++) {
+            tm.startTransaction();
+            for (int i = 0; i < perTransaction; i++)
+                tm.operateOnResourceInCurrentTransaction(ids[i % ids.length], IncOp.get());
+            if ((t & 1) == 0)
+                tm.commitCurrentTransaction();
+            else
+                tm.rollbackCurrentTransaction();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package cp1.bench;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import cp1.base.ResourceId;
+import cp1.solution.TM;
+import cp1.solution.TransactionManagerFactory;
+import cp1.solution.WaitPolicy;
+
+/**
+ * A mix of short transactions, incrementing two random resources, and
+ * long ones, incrementing eight, all taking a few hot resources in
+ * random order with a pause after each operation, so that they queue
+ * and deadlock. Runs once with each wait policy; under PRIORITY the
+ * long transactions start with a higher priority. Reports throughput,
+ * abort rate and latency, and the operations undone by aborts per
+ * commit, and checks the resource totals against the commits.
+ * Usage: WaitPolicyBenchmark [threads] [resources] [longShare] [pauseMicros] [seconds]
+ */
+public class WaitPolicyBenchmark {
+    private static final int SHORT_OPERATIONS = 2;
+    private static final int LONG_OPERATIONS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int resources = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        double longShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.2;
+        long pauseNanos = 1000 * (args.length > 3 ? Long.parseLong(args[3]) : 20);
+        double seconds = args.length > 4 ? Double.parseDouble(args[4]) : 2;
+
+        System.out.println("policy\t\tresult");
+        for (WaitPolicy policy : WaitPolicy.values())
+            run(policy, threads, resources, longShare, pauseNanos, seconds);
+    }
+
+    private static void run(WaitPolicy policy, int threads, int resources, double longShare, long pauseNanos,
+                            double seconds) throws Exception {
+        BenchResource[] all = BenchHarness.resources(resources);
+        ResourceId[] ids = BenchHarness.ids(all);
+        TM tm = (TM) TransactionManagerFactory.newTM(BenchHarness.asList(all), System::nanoTime);
+        tm.setWaitPolicy(policy);
+
+        LongAdder applied = new LongAdder();
+        LongAdder committed = new LongAdder();
+        BenchHarness.Result result = BenchHarness.run(tm, threads, seconds, (m, random) -> {
+            boolean isLong = random.nextDouble() < longShare;
+            int operations = isLong ? LONG_OPERATIONS : SHORT_OPERATIONS;
+            if (policy == WaitPolicy.PRIORITY && isLong)
+                m.startTransaction(1);
+            else
+                m.startTransaction();
+            for (int i = 0; i < operations; i++) {
+                m.operateOnResourceInCurrentTransaction(ids[random.nextInt(resources)], IncOp.get());
+                applied.increment();
+                if (pauseNanos > 0)
+                    LockSupport.parkNanos(pauseNanos);
+            }
+            m.commitCurrentTransaction();
+            committed.add(operations);
+        });
+        System.out.printf("%-12s\t%s\tundone/commit %.2f%n", policy, result,
+                (double) (applied.sum() - committed.sum()) / Math.max(1, result.commits));
+
+        long total = 0;
+        for (BenchResource r : all)
+            total += r.getValue();
+        if (total != committed.sum())
+            throw new AssertionError("Expected " + committed.sum() + " increments, found " + total);
+    }
+}
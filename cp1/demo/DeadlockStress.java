@@ -0,0 +1,378 @@
+package cp1.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.LocalTimeProvider;
+import cp1.base.ReadOnlyOperation;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.TransactionManager;
+import cp1.solution.DeadlockDetection;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Stress checks for deadlock detection: long wait rings,
+ * many disjoint cycles closing at once, random
+ * multi-resource transactions and readers upgrading
+ * shared holds, each on a plain manager and on a sharded
+ * one, where consecutive resources are in different shards
+ * and the rings cross shards. Throws an AssertionError
+ * on a wrong victim, a wrong number of aborts or a lost
+ * update, and hangs if a cycle is missed.
+ * Usage: DeadlockStress [ringLength] [cycles] [threads]
+ */
+public class DeadlockStress {
+    private static final int SHARDS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int ringLength = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int cycles = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+        for (DeadlockDetection detection : DeadlockDetection.values()) {
+            for (int shards : new int[] { 0, SHARDS }) {
+                for (int length = 2; length <= ringLength; length *= 2)
+                    ring(detection, shards, length);
+                disjointCycles(detection, shards, cycles);
+                random(detection, shards, threads, 8, 2000, false);
+                random(detection, shards, threads, 64, 2000, false);
+                random(detection, shards, threads, 8, 2000, true);
+                upgrades(detection, shards, threads);
+                readMostly(detection, shards, threads, 8, 2000);
+            }
+            System.out.println(detection + " OK");
+        }
+    }
+
+    // Transaction i holds resource i and then asks for resource i + 1 (mod n).
+    // Exactly one transaction, the one started last, has to be aborted.
+    private static void ring(DeadlockDetection detection, int shards, int n) throws Exception {
+        Counter[] counters = counters(n);
+        TransactionManager tm = manager(counters, new AtomicLong()::incrementAndGet, detection, shards);
+        CountDownLatch[] started = new CountDownLatch[n + 1];
+        for (int i = 0; i <= n; i++)
+            started[i] = new CountDownLatch(1);
+        started[0].countDown();
+        CountDownLatch allHold = new CountDownLatch(n);
+        AtomicInteger abortedIndex = new AtomicInteger(-1);
+        AtomicInteger aborts = new AtomicInteger();
+
+        Thread[] workers = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            final int me = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    started[me].await();
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(counters[me].getId(), Inc.get());
+                    started[me + 1].countDown();
+                    allHold.countDown();
+                    allHold.await();
+                    try {
+                        tm.operateOnResourceInCurrentTransaction(counters[(me + 1) % n].getId(), Inc.get());
+                        tm.commitCurrentTransaction();
+                    } catch (ActiveTransactionAborted e) {
+                        aborts.incrementAndGet();
+                        abortedIndex.set(me);
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            });
+        }
+        startAndJoin(workers);
+
+        expect(aborts.get() == 1, "ring of " + n + ": expected one abort, got " + aborts.get());
+        expect(abortedIndex.get() == n - 1,
+                "ring of " + n + ": expected the youngest transaction to be aborted, got " + abortedIndex.get());
+        expect(total(counters) == 2L * (n - 1), "ring of " + n + ": lost update");
+    }
+
+    // Many two-transaction cycles on disjoint resources close at the same time.
+    private static void disjointCycles(DeadlockDetection detection, int shards, int cycles) throws Exception {
+        Counter[] counters = counters(2 * cycles);
+        TransactionManager tm = manager(counters, new AtomicLong()::incrementAndGet, detection, shards);
+        CountDownLatch allHold = new CountDownLatch(2 * cycles);
+        AtomicInteger aborts = new AtomicInteger();
+
+        Thread[] workers = new Thread[2 * cycles];
+        for (int i = 0; i < workers.length; i++) {
+            final ResourceId mine = counters[i].getId();
+            final ResourceId other = counters[i ^ 1].getId();
+            workers[i] = new Thread(() -> {
+                try {
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(mine, Inc.get());
+                    allHold.countDown();
+                    allHold.await();
+                    try {
+                        tm.operateOnResourceInCurrentTransaction(other, Inc.get());
+                        tm.commitCurrentTransaction();
+                    } catch (ActiveTransactionAborted e) {
+                        aborts.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            });
+        }
+        startAndJoin(workers);
+
+        expect(aborts.get() == cycles, "expected " + cycles + " aborts, got " + aborts.get());
+        expect(total(counters) == 2L * cycles, "disjoint cycles: lost update");
+    }
+
+    // Random transactions over a small pool, checked against the committed count.
+    // With declared set, every other thread declares its resources up front,
+    // so declared and dynamic transactions wait for each other.
+    private static void random(DeadlockDetection detection, int shards, int threads, int size, int transactionsPerThread,
+                               boolean declared) throws Exception {
+        Counter[] counters = counters(size);
+        TransactionManager tm = manager(counters, System::nanoTime, detection, shards);
+        AtomicLong committedOps = new AtomicLong();
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final boolean declares = declared && t % 2 == 1;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                List<ResourceId> rids = new ArrayList<>();
+                try {
+                    for (int i = 0; i < transactionsPerThread; i++) {
+                        int ops = 1 + random.nextInt(4);
+                        rids.clear();
+                        for (int k = 0; k < ops; k++)
+                            rids.add(counters[random.nextInt(size)].getId());
+                        try {
+                            if (declares)
+                                tm.startTransaction(rids);
+                            else
+                                tm.startTransaction();
+                            for (int k = 0; k < ops; k++)
+                                tm.operateOnResourceInCurrentTransaction(rids.get(k), Inc.get());
+                            tm.commitCurrentTransaction();
+                            committedOps.addAndGet(ops);
+                        } catch (ActiveTransactionAborted e) {
+                            // Retried with different resources in the next round.
+                        } finally {
+                            tm.rollbackCurrentTransaction();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+        }
+        startAndJoin(workers);
+
+        expect(total(counters) == committedOps.get(), "random: lost update");
+    }
+
+    // All transactions read one resource and then all try to write it.
+    // Every upgrade waits for the other readers, so all but one have to be aborted.
+    private static void upgrades(DeadlockDetection detection, int shards, int n) throws Exception {
+        Counter[] counters = counters(1);
+        ResourceId rid = counters[0].getId();
+        TransactionManager tm = manager(counters, new AtomicLong()::incrementAndGet, detection, shards);
+        CountDownLatch allRead = new CountDownLatch(n);
+        AtomicInteger aborts = new AtomicInteger();
+
+        Thread[] workers = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(rid, Read.get());
+                    allRead.countDown();
+                    allRead.await();
+                    try {
+                        tm.operateOnResourceInCurrentTransaction(rid, Inc.get());
+                        tm.commitCurrentTransaction();
+                    } catch (ActiveTransactionAborted e) {
+                        aborts.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            });
+        }
+        startAndJoin(workers);
+
+        expect(aborts.get() == n - 1, "upgrades: expected " + (n - 1) + " aborts, got " + aborts.get());
+        expect(total(counters) == 1, "upgrades: lost update");
+    }
+
+    // Random transactions of mostly reads, each read possibly followed by
+    // a write of the same resource, checked against the committed count.
+    private static void readMostly(DeadlockDetection detection, int shards, int threads, int size, int transactionsPerThread)
+            throws Exception {
+        Counter[] counters = counters(size);
+        TransactionManager tm = manager(counters, System::nanoTime, detection, shards);
+        AtomicLong committedOps = new AtomicLong();
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    for (int i = 0; i < transactionsPerThread; i++) {
+                        int ops = 1 + random.nextInt(4);
+                        int writes = 0;
+                        try {
+                            tm.startTransaction();
+                            for (int k = 0; k < ops; k++) {
+                                ResourceId rid = counters[random.nextInt(size)].getId();
+                                tm.operateOnResourceInCurrentTransaction(rid, Read.get());
+                                if (random.nextInt(10) == 0) {
+                                    tm.operateOnResourceInCurrentTransaction(rid, Inc.get());
+                                    writes++;
+                                }
+                            }
+                            tm.commitCurrentTransaction();
+                            committedOps.addAndGet(writes);
+                        } catch (ActiveTransactionAborted e) {
+                            // Retried with different resources in the next round.
+                        } finally {
+                            tm.rollbackCurrentTransaction();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+        }
+        startAndJoin(workers);
+
+        expect(total(counters) == committedOps.get(), "read-mostly: lost update");
+    }
+
+    // A plain manager if shards is 0, a sharded one otherwise.
+    private static TransactionManager manager(Counter[] counters, LocalTimeProvider timeProvider,
+                                              DeadlockDetection detection, int shards) {
+        if (shards == 0)
+            return TransactionManagerFactory.newTM(asList(counters), timeProvider, detection, 1);
+        return TransactionManagerFactory.newShardedTM(asList(counters), timeProvider, detection, 1, shards);
+    }
+
+    private static void startAndJoin(Thread[] workers) throws InterruptedException {
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    private static Counter[] counters(int n) {
+        Counter[] counters = new Counter[n];
+        for (int i = 0; i < n; i++)
+            counters[i] = new Counter(new Id(i));
+        return counters;
+    }
+
+    private static List<Resource> asList(Counter[] counters) {
+        List<Resource> list = new ArrayList<>(counters.length);
+        for (Counter c : counters)
+            list.add(c);
+        return list;
+    }
+
+    private static long total(Counter[] counters) {
+        long total = 0;
+        for (Counter c : counters)
+            total += c.value;
+        return total;
+    }
+
+    static final class Id implements ResourceId {
+        private final int value;
+
+        Id(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            return Integer.compare(value, ((Id) other).value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Id && ((Id) obj).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + value;
+        }
+    }
+
+    static final class Counter extends Resource {
+        private volatile long value = 0;
+
+        Counter(ResourceId id) {
+            super(id);
+        }
+
+        long getValue() {
+            return value;
+        }
+    }
+
+    static final class Inc extends ResourceOperation {
+        private static final Inc singleton = new Inc();
+
+        static ResourceOperation get() {
+            return singleton;
+        }
+
+        @Override
+        public void execute(Resource r) {
+            ((Counter) r).value++;
+        }
+
+        @Override
+        public void undo(Resource r) {
+            ((Counter) r).value--;
+        }
+    }
+
+    static final class Read extends ResourceOperation implements ReadOnlyOperation {
+        private static final Read singleton = new Read();
+
+        static ResourceOperation get() {
+            return singleton;
+        }
+
+        @Override
+        public void execute(Resource r) {
+            if (((Counter) r).value < 0)
+                throw new AssertionError("negative counter " + r.getId());
+        }
+
+        @Override
+        public void undo(Resource r) {
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package cp1.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.Savepoint;
+import cp1.base.SubTransaction;
+import cp1.base.TransactionManager;
+import cp1.demo.DeadlockStress.Counter;
+import cp1.demo.DeadlockStress.Id;
+import cp1.demo.DeadlockStress.Inc;
+import cp1.demo.DeadlockStress.Read;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Checks of sequences that once went wrong, each run on the
+ * managers it applies to. Throws an AssertionError on a wrong
+ * outcome and prints OK otherwise.
+ * Usage: Regressions
+ */
+public class Regressions {
+    public static void main(String[] args) throws Exception {
+        rollbackToSavepointKeepsOwnReads(true);
+        rollbackToSavepointKeepsOwnReads(false);
+        rollbackToSavepointKeepsOthersWrites();
+        parentRollsBackAbandonedSubTransaction();
+        parentRollsBackWaitingSubTransaction();
+        System.out.println("OK");
+    }
+
+    // Read r0, take a savepoint, write r0, roll back to the savepoint
+    // releasing r0, and commit: nothing else touched r0, so the commit
+    // must go through. An optimistic manager used to fail it on its own
+    // release of the write intent.
+    private static void rollbackToSavepointKeepsOwnReads(boolean optimistic) throws Exception {
+        Counter[] counters = counters(1);
+        TransactionManager tm = optimistic
+                ? TransactionManagerFactory.newOptimisticTM(asList(counters), System::nanoTime)
+                : TransactionManagerFactory.newTM(asList(counters), System::nanoTime);
+
+        tm.startTransaction();
+        tm.operateOnResourceInCurrentTransaction(counters[0].getId(), Read.get());
+        Savepoint savepoint = tm.createSavepoint();
+        tm.operateOnResourceInCurrentTransaction(counters[0].getId(), Inc.get());
+        tm.rollbackToSavepoint(savepoint, true);
+        try {
+            tm.commitCurrentTransaction();
+        } catch (ActiveTransactionAborted e) {
+            throw new AssertionError((optimistic ? "optimistic" : "locking")
+                    + " manager aborted a transaction on its own savepoint rollback");
+        }
+        expect(counters[0], 0);
+    }
+
+    // The same, except that another transaction writes r0 after it is read:
+    // the optimistic commit must still fail validation.
+    private static void rollbackToSavepointKeepsOthersWrites() throws Exception {
+        Counter[] counters = counters(1);
+        TransactionManager tm = TransactionManagerFactory.newOptimisticTM(asList(counters), System::nanoTime);
+
+        tm.startTransaction();
+        tm.operateOnResourceInCurrentTransaction(counters[0].getId(), Read.get());
+        Thread writer = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(counters[0].getId(), Inc.get());
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        writer.start();
+        writer.join();
+        Savepoint savepoint = tm.createSavepoint();
+        tm.operateOnResourceInCurrentTransaction(counters[0].getId(), Inc.get());
+        tm.rollbackToSavepoint(savepoint, true);
+        try {
+            tm.commitCurrentTransaction();
+            throw new AssertionError("optimistic manager committed a transaction that read a stale version");
+        } catch (ActiveTransactionAborted e) {
+            tm.rollbackCurrentTransaction();
+        }
+        expect(counters[0], 1);
+    }
+
+    // A worker increments r0 in a sub-transaction and returns without
+    // ending it. The parent's rollback must roll the sub-transaction back
+    // and release r0. It used to be refused, leaving r0 held for good.
+    private static void parentRollsBackAbandonedSubTransaction() throws Exception {
+        Counter[] counters = counters(1);
+        TransactionManager tm = TransactionManagerFactory.newTM(asList(counters), System::nanoTime);
+
+        tm.startTransaction();
+        SubTransaction child = tm.startSubTransaction();
+        Thread worker = new Thread(() -> {
+            try {
+                child.operateOnResource(counters[0].getId(), Inc.get());
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        worker.start();
+        worker.join();
+        tm.rollbackCurrentTransaction();
+        expect(counters[0], 0);
+        if (!child.isAborted())
+            throw new AssertionError("sub-transaction rolled back by its parent is not aborted");
+
+        Thread other = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(counters[0].getId(), Inc.get());
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        other.setDaemon(true);
+        other.start();
+        other.join(10_000);
+        if (other.isAlive())
+            throw new AssertionError("resource of a rolled back family is still held");
+        expect(counters[0], 1);
+    }
+
+    // A worker's sub-transaction waits for r0, held by a third transaction,
+    // when the parent rolls back. Once the holder commits, r0 must be free:
+    // the parent used to stay queued for it and be handed it after its end.
+    private static void parentRollsBackWaitingSubTransaction() throws Exception {
+        Counter[] counters = counters(1);
+        TransactionManager tm = TransactionManagerFactory.newTM(asList(counters), System::nanoTime);
+
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(counters[0].getId(), Inc.get());
+                held.countDown();
+                release.await();
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        holder.start();
+        held.await();
+
+        tm.startTransaction();
+        SubTransaction child = tm.startSubTransaction();
+        AtomicReference<Exception> outcome = new AtomicReference<>();
+        Thread worker = new Thread(() -> {
+            try {
+                child.operateOnResource(counters[0].getId(), Inc.get());
+            } catch (Exception e) {
+                outcome.set(e);
+            }
+        });
+        worker.start();
+        while (worker.getState() != Thread.State.WAITING)
+            Thread.onSpinWait();
+        tm.rollbackCurrentTransaction();
+        worker.join();
+        if (!(outcome.get() instanceof ActiveTransactionAborted))
+            throw new AssertionError("waiting sub-transaction ended with " + outcome.get());
+
+        release.countDown();
+        holder.join();
+        Thread other = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(counters[0].getId(), Inc.get());
+                tm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        other.setDaemon(true);
+        other.start();
+        other.join(10_000);
+        if (other.isAlive())
+            throw new AssertionError("resource waited for by a rolled back family is still held");
+        tm.startTransaction();
+        tm.operateOnResourceInCurrentTransaction(counters[0].getId(), Inc.get());
+        tm.commitCurrentTransaction();
+        expect(counters[0], 3);
+    }
+
+    private static void expect(Counter counter, long value) {
+        if (counter.getValue() != value)
+            throw new AssertionError("Expected " + counter.getId() + " to be " + value + ", found " + counter.getValue());
+    }
+
+    private static Counter[] counters(int n) {
+        Counter[] counters = new Counter[n];
+        for (int i = 0; i < n; i++)
+            counters[i] = new Counter(new Id(i));
+        return counters;
+    }
+
+    private static List<Resource> asList(Counter[] counters) {
+        List<Resource> list = new ArrayList<>(counters.length);
+        for (Counter c : counters)
+            list.add(c);
+        return list;
+    }
+}
@@ -0,0 +1,81 @@
+package cp1.demo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cp1.solution.TraceEvent;
+
+/**
+ * Prints a trace written by TM.dumpTrace, the events of
+ * all threads merged in time order, one per line: microseconds
+ * since the first event, thread, event, resource and argument.
+ * Usage: TraceDecoder dumpFile
+ */
+public class TraceDecoder {
+    private static final int MAGIC = 0x43503154;
+    private static final int VERSION = 1;
+
+    private static final class Event {
+        final long time;
+        final String thread;
+        final TraceEvent kind;
+        final int slot;
+        final long argument;
+
+        Event(long time, String thread, TraceEvent kind, int slot, long argument) {
+            this.time = time;
+            this.thread = thread;
+            this.kind = kind;
+            this.slot = slot;
+            this.argument = argument;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: TraceDecoder dumpFile");
+            System.exit(2);
+        }
+
+        List<Event> events = new ArrayList<>();
+        Map<Integer, String> resources = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a TM trace");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported trace version " + version);
+
+            TraceEvent[] kinds = TraceEvent.values();
+            int buffers = in.readInt();
+            for (int b = 0; b < buffers; b++) {
+                String thread = in.readLong() + "/" + in.readUTF();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long time = in.readLong();
+                    TraceEvent kind = kinds[in.readInt()];
+                    int slot = in.readInt();
+                    events.add(new Event(time, thread, kind, slot, in.readLong()));
+                }
+            }
+            int slots = in.readInt();
+            for (int i = 0; i < slots; i++) {
+                int slot = in.readInt();
+                resources.put(slot, in.readUTF());
+            }
+        }
+
+        events.sort((a, b) -> Long.compare(a.time, b.time));
+        long origin = events.isEmpty() ? 0 : events.get(0).time;
+        for (Event e : events) {
+            System.out.printf("%.3f\t%s\t%s\t%s\t%d%n", (e.time - origin) / 1e3, e.thread, e.kind,
+                    e.slot < 0 ? "-" : resources.get(e.slot), e.argument);
+        }
+    }
+}
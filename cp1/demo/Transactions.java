@@ -221,7 +221,7 @@ public class Transactions {
 		}
 	}
 	
-	private static final class ResourceIdImpl implements ResourceId {
+	static final class ResourceIdImpl implements ResourceId {
 		private static volatile int next = 0;
 		
 		public static synchronized ResourceId generate() {
@@ -259,7 +259,7 @@ public class Transactions {
 		}
 	}
 	
-	private static final class ResourceImpl extends Resource {
+	static final class ResourceImpl extends Resource {
 		private volatile long value = 0;
 		public ResourceImpl(ResourceId id) {
 			super(id);
@@ -279,7 +279,7 @@ public class Transactions {
 		}
 	}
 	
-	private static final class ResourceOpImpl extends ResourceOperation {
+	static final class ResourceOpImpl extends ResourceOperation {
 		private final static ResourceOpImpl singleton = new ResourceOpImpl();
 		public static ResourceOperation get() {
 			return singleton;
@@ -0,0 +1,93 @@
+package cp1.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.demo.Transactions.ResourceIdImpl;
+import cp1.demo.Transactions.ResourceImpl;
+import cp1.demo.Transactions.ResourceOpImpl;
+import cp1.solution.DeadlockDetection;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Runs one transaction per virtual thread (JDK 21+), retrying
+ * aborted ones, over the resources and operation of the
+ * Transactions demo, and reports throughput and latency percentiles.
+ * Checks at the end that no committed increment was lost.
+ * Run with -Djdk.tracePinnedThreads=full to have the JDK print
+ * a stack trace whenever a carrier thread gets pinned.
+ * Usage: VirtualThreadLoadTest [transactions] [resources] [opsPerTransaction]
+ */
+public class VirtualThreadLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int perTransaction = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        List<Resource> resources = new ArrayList<>(size);
+        ResourceImpl[] all = new ResourceImpl[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = new ResourceImpl(ResourceIdImpl.generate());
+            resources.add(all[i]);
+        }
+        TransactionManager tm = TransactionManagerFactory.newVirtualThreadTM(
+                resources, System::nanoTime, DeadlockDetection.EAGER, 10);
+
+        long[] latencies = new long[transactions];
+        AtomicLong retries = new AtomicLong();
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < transactions; t++) {
+                final int me = t;
+                executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    ResourceId[] ids = new ResourceId[perTransaction];
+                    for (int i = 0; i < perTransaction; i++)
+                        ids[i] = all[random.nextInt(size)].getId();
+                    long begin = System.nanoTime();
+                    while (true) {
+                        try {
+                            tm.startTransaction();
+                            for (ResourceId rid : ids)
+                                tm.operateOnResourceInCurrentTransaction(rid, ResourceOpImpl.get());
+                            tm.commitCurrentTransaction();
+                            break;
+                        } catch (ActiveTransactionAborted e) {
+                            retries.incrementAndGet();
+                        } finally {
+                            tm.rollbackCurrentTransaction();
+                        }
+                    }
+                    latencies[me] = System.nanoTime() - begin;
+                    return null;
+                });
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        long total = 0;
+        for (ResourceImpl r : all)
+            total += r.getValue();
+        if (total != (long) transactions * perTransaction)
+            throw new AssertionError("Expected " + (long) transactions * perTransaction
+                    + " increments, found " + total);
+
+        Arrays.sort(latencies);
+        System.out.printf("transactions\t%d%n", transactions);
+        System.out.printf("retries\t%d%n", retries.get());
+        System.out.printf("tx/s\t%.0f%n", transactions / (nanos / 1e9));
+        System.out.printf("p50 us\t%.1f%n", latencies[transactions / 2] / 1e3);
+        System.out.printf("p99 us\t%.1f%n", latencies[(int) (transactions * 0.99)] / 1e3);
+        System.out.printf("max us\t%.1f%n", latencies[transactions - 1] / 1e3);
+    }
+}
@@ -0,0 +1,133 @@
+package cp1.solution;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cp1.base.ResourceId;
+
+// Optional profiler fed from the slow paths of TM: a sample of contended
+// acquisitions, every deadlock victim and every chain walked by the deadlock
+// detector. Memory is fixed by the number of entries kept per summary,
+// however many resources and threads the manager has. Samples and chains are
+// dropped rather than waited for when another thread is updating the
+// profiler; victims are rare and always recorded. The lock is never held
+// while taking another one.
+final class ContentionProfiler {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int samplingInterval;
+    private final SpaceSaving resources;
+    private final SpaceSaving victims;
+
+    // The longest chains seen, unordered, and the length of the shortest of
+    // them once all places are taken, to skip shorter chains without locking.
+    private final int[][] chains;
+    private int chainCount = 0;
+    private volatile int shortestChain = 0;
+
+    ContentionProfiler(int topK, int samplingInterval) {
+        if (topK <= 0 || samplingInterval <= 0)
+            throw new IllegalArgumentException("Top-K size and sampling interval must be positive");
+
+        this.samplingInterval = samplingInterval;
+        resources = new SpaceSaving(topK);
+        victims = new SpaceSaving(topK);
+        chains = new int[topK][];
+    }
+
+    void contended(int slot) {
+        if (samplingInterval > 1 && ThreadLocalRandom.current().nextInt(samplingInterval) != 0)
+            return;
+
+        if (!lock.tryLock())
+            return;
+        try {
+            resources.offer(slot, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void victim(Transaction victim) {
+        lock.lock();
+        try {
+            victims.offer(victim.threadId, victim.thread.getName());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A walk that runs into a cycle not through its start goes around it
+    // for a while before it stops; the repetition is cut off.
+    void chain(WaitChain chain) {
+        if (chain.length() <= shortestChain)
+            return;
+
+        Set<Integer> seen = new HashSet<>();
+        int length = 0;
+        while (length < chain.length() && seen.add(chain.get(length)))
+            length++;
+        if (length <= shortestChain || !lock.tryLock())
+            return;
+        try {
+            int place;
+            if (chainCount < chains.length) {
+                place = chainCount++;
+            } else {
+                place = 0;
+                for (int i = 1; i < chainCount; i++) {
+                    if (chains[i].length < chains[place].length)
+                        place = i;
+                }
+                if (chains[place].length >= length)
+                    return;
+            }
+            int[] copy = new int[length];
+            for (int i = 0; i < length; i++)
+                copy[i] = chain.get(i);
+            chains[place] = copy;
+
+            if (chainCount == chains.length) {
+                int shortest = Integer.MAX_VALUE;
+                for (int[] c : chains)
+                    shortest = Math.min(shortest, c.length);
+                shortestChain = shortest;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    ContentionReport report(ResourceIndex index) {
+        lock.lock();
+        try {
+            List<ContentionReport.Count<ResourceId>> hot = new ArrayList<>();
+            for (int i = 0; i < resources.size(); i++)
+                hot.add(new ContentionReport.Count<>(index.get((int) resources.key(i)).getId(),
+                        resources.count(i), resources.error(i)));
+            hot.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+
+            List<ContentionReport.Count<String>> aborted = new ArrayList<>();
+            for (int i = 0; i < victims.size(); i++)
+                aborted.add(new ContentionReport.Count<>((String) victims.label(i),
+                        victims.count(i), victims.error(i)));
+            aborted.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+
+            List<List<ResourceId>> longest = new ArrayList<>();
+            for (int i = 0; i < chainCount; i++) {
+                List<ResourceId> ids = new ArrayList<>(chains[i].length);
+                for (int slot : chains[i])
+                    ids.add(index.get(slot).getId());
+                longest.add(ids);
+            }
+            longest.sort((a, b) -> Integer.compare(b.size(), a.size()));
+
+            return new ContentionReport(samplingInterval, hot, aborted, longest);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package cp1.solution;
+
+import java.util.Collections;
+import java.util.List;
+
+import cp1.base.ResourceId;
+
+/**
+ * What a transaction manager's contention profiler has
+ * seen since it was started, as returned by
+ * TM.getContentionReport. Resources and victims are
+ * tracked in bounded summaries, so counts are estimates:
+ * each may exceed the true count by at most its error.
+ * Resource counts are of sampled contended acquisitions,
+ * one in getSamplingInterval() on average.
+ */
+public final class ContentionReport {
+
+    /**
+     * An estimated number of occurrences of a key, which
+     * is at most getError() above the true number.
+     */
+    public static final class Count<T> {
+
+        private final T key;
+        private final long count;
+        private final long error;
+
+        Count(T key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public T getKey() {
+            return this.key;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getError() {
+            return this.error;
+        }
+
+        @Override
+        public String toString() {
+            return this.key + "=" + this.count + (this.error > 0 ? "(+-" + this.error + ")" : "");
+        }
+    }
+
+    private final int samplingInterval;
+    private final List<Count<ResourceId>> hotResources;
+    private final List<Count<String>> victims;
+    private final List<List<ResourceId>> longestWaitChains;
+
+    ContentionReport(
+            int samplingInterval,
+            List<Count<ResourceId>> hotResources,
+            List<Count<String>> victims,
+            List<List<ResourceId>> longestWaitChains
+    ) {
+        this.samplingInterval = samplingInterval;
+        this.hotResources = Collections.unmodifiableList(hotResources);
+        this.victims = Collections.unmodifiableList(victims);
+        this.longestWaitChains = Collections.unmodifiableList(longestWaitChains);
+    }
+
+    public int getSamplingInterval() {
+        return this.samplingInterval;
+    }
+
+    /**
+     * The most contended resources, most contended first.
+     */
+    public List<Count<ResourceId>> getHotResources() {
+        return this.hotResources;
+    }
+
+    /**
+     * The threads whose transactions were most often
+     * chosen as deadlock victims, by thread name.
+     */
+    public List<Count<String>> getVictims() {
+        return this.victims;
+    }
+
+    /**
+     * The longest chains of resources followed by the
+     * deadlock detector, longest first. Each lists the
+     * resources in the order the chain went through them.
+     */
+    public List<List<ResourceId>> getLongestWaitChains() {
+        return this.longestWaitChains;
+    }
+
+    @Override
+    public String toString() {
+        return "hotResources=" + this.hotResources +
+                " victims=" + this.victims +
+                " longestWaitChains=" + this.longestWaitChains;
+    }
+
+}
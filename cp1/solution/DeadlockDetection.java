@@ -0,0 +1,27 @@
+package cp1.solution;
+
+/**
+ * When a transaction manager looks for deadlocks.
+ * Every strategy aborts the same victim, the youngest
+ * of the lowest-priority transactions on the cycle, and
+ * reports it through ActiveTransactionAborted.
+ */
+public enum DeadlockDetection {
+    /**
+     * Every transaction that starts waiting checks at once
+     * whether it has closed a cycle.
+     */
+    EAGER,
+
+    /**
+     * A background daemon thread checks all waiting
+     * transactions once per interval.
+     */
+    PERIODIC,
+
+    /**
+     * A waiting transaction checks for a cycle only after it
+     * has waited for an interval, and again after each further one.
+     */
+    TIMEOUT
+}
@@ -0,0 +1,455 @@
+package cp1.solution;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import cp1.base.OperationSerializer;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+
+// Redo log of the operations of a TM, kept in memory-mapped segment files
+// named wal-<index>.log in one directory. A new segment is started when a
+// record does not fit in the current one; the full segment is forced first.
+//
+// The resources handed to a manager are taken to be in the state they had
+// when the log was first opened, and recovery repeats history: it applies
+// every logged operation in log order, undoes a transaction's operations
+// where its ROLLBACK record is, and finally undoes the transactions that
+// never finished, newest operation first. Rollback records for the latter
+// are then appended, so that a later recovery sees them at the right place.
+// Segments are never reclaimed, as the whole history is needed.
+//
+// A TwoPhaseCoordinator keeps its decisions in a log of its own, with no
+// serializer: a COMMIT record, argument the set of participants, for each
+// global transaction decided to commit, and an END record once all of them
+// have committed. Recovery hands back the commits without an END.
+//
+// Record layout, big-endian:
+//   int length of the whole record, int CRC32 of the bytes after it,
+//   byte type, long transaction id, int argument, then for APPLY the
+//   operation as written by the OperationSerializer. The argument is the
+//   resource's rank in ResourceId order for APPLY and, for
+//   ROLLBACK_TO_SAVEPOINT, the number of the transaction's logged
+//   operations that are kept.
+// A zero length, or a record that fails its checksum, ends a segment.
+//
+// Appends are serialized by a lock and only copy a record built by the
+// caller. Commits wait for their record to be forced by group commit: one
+// waiter at a time becomes the leader, waits for the group commit window
+// to let more commits in and forces everything appended so far for all of
+// them. Asynchronous commits do not wait: they queue a future, and a single
+// flusher thread takes the whole queue at a time, waits like a synchronous
+// commit for everything appended so far and completes all of them.
+final class DurableLog {
+    static final byte APPLY = 1;
+    static final byte COMMIT = 2;
+    static final byte ROLLBACK = 3;
+    static final byte ROLLBACK_TO_SAVEPOINT = 4;
+    // Only in the log of a two-phase commit coordinator.
+    static final byte END = 5;
+
+    static final int HEADER_SIZE = 21;
+    static final byte[] EMPTY_HEADER = new byte[HEADER_SIZE];
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final class Segment {
+        final long index;
+        final MappedByteBuffer buffer;
+
+        Segment(long index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+
+    // An operation of a transaction that has not finished by the point
+    // of the log being recovered.
+    private static final class Pending {
+        final long sequence;
+        final int slot;
+        final ResourceOperation operation;
+
+        Pending(long sequence, int slot, ResourceOperation operation) {
+            this.sequence = sequence;
+            this.slot = slot;
+            this.operation = operation;
+        }
+    }
+
+    private final Path directory;
+    private final OperationSerializer serializer;
+    private final int segmentSize;
+    private final long groupCommitWindowNanos;
+
+    private final AtomicLong nextTransactionId = new AtomicLong(1);
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // Guarded by appendLock.
+    private Segment current = null;
+    private int offset = 0;
+    // Position just past the last complete record, as segment index times
+    // segment size plus offset. Written under appendLock.
+    private volatile long end = 0;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    // Guarded by syncLock.
+    private boolean syncing = false;
+    // Everything below this position has been forced.
+    private volatile long durable = 0;
+
+    private final AtomicLong forces = new AtomicLong();
+
+    // Asynchronous commits waiting for the flusher, which is started on first use.
+    private final Queue<CompletableFuture<Void>> pendingCommits = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flusherStarted = new AtomicBoolean();
+    private volatile Thread flusher = null;
+
+    // Background thread completing asynchronous commits. It only keeps a weak
+    // reference to the log and exits once the log is gone.
+    private static final class Flusher implements Runnable {
+        // How often an idle flusher checks whether the log is still there.
+        private static final long IDLE_NANOS = 100_000_000;
+
+        private final WeakReference<DurableLog> log;
+
+        private Flusher(DurableLog log) {
+            this.log = new WeakReference<>(log);
+        }
+
+        @Override
+        public void run() {
+            List<CompletableFuture<Void>> batch = new ArrayList<>();
+            while (true) {
+                DurableLog log = this.log.get();
+                if (log == null)
+                    return;
+
+                CompletableFuture<Void> commit;
+                while ((commit = log.pendingCommits.poll()) != null)
+                    batch.add(commit);
+                if (batch.isEmpty()) {
+                    log = null;
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                    continue;
+                }
+
+                // Every queued commit was appended before it was queued.
+                Throwable failure = null;
+                try {
+                    log.awaitDurable(log.end);
+                } catch (RuntimeException | Error e) {
+                    failure = e;
+                }
+                for (CompletableFuture<Void> completed : batch) {
+                    if (failure == null)
+                        completed.complete(null);
+                    else
+                        completed.completeExceptionally(failure);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    DurableLog(Path directory, OperationSerializer serializer, int segmentSize, long groupCommitWindowNanos) {
+        if (segmentSize < 2 * HEADER_SIZE)
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        if (groupCommitWindowNanos < 0)
+            throw new IllegalArgumentException("Negative group commit window");
+
+        this.directory = directory;
+        this.serializer = serializer;
+        this.segmentSize = segmentSize;
+        this.groupCommitWindowNanos = groupCommitWindowNanos;
+    }
+
+    OperationSerializer serializer() {
+        return serializer;
+    }
+
+    long newTransactionId() {
+        return nextTransactionId.getAndIncrement();
+    }
+
+    // Number of times the log has been forced to disk.
+    long forces() {
+        return forces.get();
+    }
+
+    // Receives the records of the log in order. The record holds the bytes
+    // after the length and the checksum.
+    private interface RecordHandler {
+        void handle(byte type, long transactionId, int argument, byte[] record) throws IOException;
+    }
+
+    // Brings the resources up to date with the log and opens a new segment
+    // for appending. Must be called once, before the first append.
+    void recover(ResourceIndex resources) throws IOException {
+        if (resources.size() > 0)
+            resources.rankOf(0);
+        Map<Long, List<Pending>> unfinished = new HashMap<>();
+        long[] sequence = { 0 };
+        long first = scan((type, transactionId, argument, record) -> {
+            if (type == APPLY) {
+                if (argument < 0 || argument >= resources.size())
+                    throw new IOException("Log refers to resource " + argument + " of " + resources.size());
+                int slot = resources.slotAtRank(argument);
+                ResourceOperation operation = serializer.read(new DataInputStream(
+                        new ByteArrayInputStream(record, HEADER_SIZE - 8, record.length - HEADER_SIZE + 8)));
+                try {
+                    resources.get(slot).apply(operation);
+                } catch (ResourceOperationException e) {
+                    throw new IOException("Redo of " + operation + " failed", e);
+                }
+                unfinished.computeIfAbsent(transactionId, id -> new ArrayList<>())
+                        .add(new Pending(sequence[0]++, slot, operation));
+            } else if (type == ROLLBACK_TO_SAVEPOINT) {
+                List<Pending> operations = unfinished.get(transactionId);
+                while (operations != null && operations.size() > Math.max(argument, 0)) {
+                    Pending undone = operations.remove(operations.size() - 1);
+                    resources.get(undone.slot).unapply(undone.operation);
+                }
+            } else {
+                List<Pending> operations = unfinished.remove(transactionId);
+                if (type == ROLLBACK && operations != null) {
+                    for (int i = operations.size() - 1; i >= 0; i--)
+                        resources.get(operations.get(i).slot).unapply(operations.get(i).operation);
+                }
+            }
+        });
+
+        List<Pending> losers = new ArrayList<>();
+        for (List<Pending> operations : unfinished.values())
+            losers.addAll(operations);
+        losers.sort((a, b) -> Long.compare(b.sequence, a.sequence));
+        for (Pending pending : losers)
+            resources.get(pending.slot).unapply(pending.operation);
+
+        openForAppend(first);
+        LogRecordBuffer record = new LogRecordBuffer();
+        long position = end;
+        for (long transactionId : unfinished.keySet()) {
+            record.build(ROLLBACK, transactionId, 0, null, serializer);
+            position = append(record);
+        }
+        awaitDurable(position);
+    }
+
+    // Reads the log of a two-phase commit coordinator, which only holds
+    // COMMIT and END records, and opens a new segment for appending.
+    // Returns the transactions with a COMMIT record and no END record
+    // after it, each with the argument of its COMMIT record.
+    // Must be called once, before the first append.
+    Map<Long, Integer> recoverDecisions() throws IOException {
+        Map<Long, Integer> committed = new HashMap<>();
+        long first = scan((type, transactionId, argument, record) -> {
+            if (type == COMMIT)
+                committed.put(transactionId, argument);
+            else if (type == END)
+                committed.remove(transactionId);
+            else
+                throw new IOException("Unexpected record of type " + type + " in a coordinator log");
+        });
+        openForAppend(first);
+        return committed;
+    }
+
+    // Passes every record of every segment, in order, to a handler and
+    // returns the index of the segment to append to next. Transaction ids
+    // continue after the largest one found.
+    private long scan(RecordHandler handler) throws IOException {
+        Files.createDirectories(directory);
+        List<Long> indices = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                indices.add(Long.parseLong(name.substring(4, name.length() - 4)));
+            }
+        }
+        indices.sort(null);
+
+        long maxTransactionId = 0;
+        CRC32 crc = new CRC32();
+        for (long index : indices) {
+            ByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            int at = 0;
+            while (at + HEADER_SIZE <= segment.limit()) {
+                int length = segment.getInt(at);
+                if (length < HEADER_SIZE || at + length > segment.limit())
+                    break;
+
+                byte[] record = new byte[length - 8];
+                segment.get(at + 8, record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != segment.getInt(at + 4))
+                    break;
+
+                ByteBuffer header = ByteBuffer.wrap(record);
+                long transactionId = header.getLong(1);
+                maxTransactionId = Math.max(maxTransactionId, transactionId);
+                handler.handle(header.get(0), transactionId, header.getInt(9), record);
+                at += length;
+            }
+        }
+        nextTransactionId.set(maxTransactionId + 1);
+        return indices.isEmpty() ? 0 : indices.get(indices.size() - 1) + 1;
+    }
+
+    private void openForAppend(long index) throws IOException {
+        appendLock.lock();
+        try {
+            openSegment(index);
+        } finally {
+            appendLock.unlock();
+        }
+        durable = end;
+    }
+
+    // Appends a record and returns the position just past it.
+    long append(LogRecordBuffer record) throws IOException {
+        int size = record.size();
+        if (size + 4 > segmentSize)
+            throw new IllegalArgumentException("Log record of " + size + " bytes does not fit in a segment");
+
+        appendLock.lock();
+        try {
+            // Leaves room for a zero length after the last record.
+            if (offset + size + 4 > segmentSize)
+                rotate();
+            current.buffer.put(offset, record.array(), 0, size);
+            offset += size;
+            long position = current.index * segmentSize + offset;
+            end = position;
+            return position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Must hold appendLock.
+    private void rotate() throws IOException {
+        current.buffer.force();
+        forces.incrementAndGet();
+        openSegment(current.index + 1);
+    }
+
+    // Must hold appendLock.
+    private void openSegment(long index) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segmentPath(index),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        current = new Segment(index, buffer);
+        offset = 0;
+        end = index * segmentSize;
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("wal-%016d.log", index));
+    }
+
+    // Returns a future completed once everything up to a given position is on disk.
+    CompletableFuture<Void> whenDurable(long position) {
+        if (durable >= position)
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> commit = new CompletableFuture<>();
+        pendingCommits.add(commit);
+        if (flusher == null && flusherStarted.compareAndSet(false, true)) {
+            Thread thread = new Thread(new Flusher(this), "TM log flusher");
+            thread.setDaemon(true);
+            flusher = thread;
+            thread.start();
+        }
+        Thread thread = flusher;
+        if (thread != null)
+            LockSupport.unpark(thread);
+        return commit;
+    }
+
+    // Returns once everything up to a given position is on disk.
+    void awaitDurable(long position) {
+        if (durable >= position)
+            return;
+
+        syncLock.lock();
+        try {
+            while (durable < position) {
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+
+                syncing = true;
+                long forced = durable;
+                syncLock.unlock();
+                try {
+                    if (groupCommitWindowNanos > 0)
+                        LockSupport.parkNanos(this, groupCommitWindowNanos);
+                    forced = force(forced);
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    if (forced > durable)
+                        durable = forced;
+                    synced.signalAll();
+                }
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // Forces the records appended since a given durable position and
+    // returns the position it forced up to. Earlier segments have been
+    // forced when they were rotated out.
+    private long force(long from) {
+        Segment segment;
+        long position;
+        appendLock.lock();
+        try {
+            segment = current;
+            position = end;
+        } finally {
+            appendLock.unlock();
+        }
+        long base = segment.index * segmentSize;
+        int start = (int) Math.max(0, from - base);
+        int length = (int) (position - base) - start;
+        if (length > 0) {
+            segment.buffer.force(start, length);
+            forces.incrementAndGet();
+        }
+        return position;
+    }
+}
@@ -0,0 +1,187 @@
+package cp1.solution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Participant;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.TransactionOutcomeUnknownException;
+
+// A transaction over the participants of a TwoPhaseCoordinator, used by one
+// thread. Operations are sent without waiting for one another, and commit
+// sends the prepare requests to all participants at once and then the
+// commits at once. A transaction on a single participant skips the prepare
+// round and the log: the participant commits in one phase and decides alone.
+// A failed operation fails its future and, like in a TransactionManager,
+// leaves the transaction active, unless it failed because the branch was
+// aborted or timed out, which aborts the whole transaction at once.
+// If the participant of a one-phase commit does not answer in time, the
+// transaction may have committed and its outcome is reported as unknown.
+public final class GlobalTransaction {
+    private static final int ACTIVE = 0;
+    private static final int COMMITTING = 1;
+    private static final int ENDED = 2;
+    private static final int ABORTED = 3;
+    private static final int IN_DOUBT = 4;
+
+    private final TwoPhaseCoordinator coordinator;
+    private final long id;
+
+    private final AtomicInteger state = new AtomicInteger(ACTIVE);
+
+    // Participants operated on, as a bit set. Written by the transaction's
+    // thread before it sends to a new participant, read by aborts.
+    private volatile int involved = 0;
+
+    // Replies to operations, only touched by the transaction's thread.
+    private final List<CompletableFuture<Void>> operations = new ArrayList<>();
+
+    GlobalTransaction(TwoPhaseCoordinator coordinator, long id) {
+        this.coordinator = coordinator;
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    // Sends an operation to a participant, given by its index, and returns
+    // a future completed with the reply.
+    public CompletableFuture<Void> operate(int participant, ResourceId rid, ResourceOperation operation)
+            throws ActiveTransactionAborted {
+        checkActive();
+        Participant target = coordinator.participant(participant);
+        involved |= 1 << participant;
+        CompletableFuture<Void> reply = target.operate(id, rid, operation)
+                .orTimeout(coordinator.timeoutNanos(), TimeUnit.NANOSECONDS);
+        // An abort that ran concurrently may not have seen the new participant.
+        if (state.get() == ABORTED)
+            target.abort(id);
+        reply.whenComplete((value, failure) -> {
+            if (failure != null && !(unwrap(failure) instanceof ResourceOperationException))
+                abort();
+        });
+        operations.add(reply);
+        return reply;
+    }
+
+    // Returns once the decision to commit is durable, with a future completed
+    // when every participant has committed. Throws ActiveTransactionAborted,
+    // after aborting the transaction, if it cannot commit, and
+    // TransactionOutcomeUnknownException if a one-phase commit got no answer.
+    public CompletableFuture<Void> commit() throws ActiveTransactionAborted, TransactionOutcomeUnknownException {
+        checkActive();
+        for (CompletableFuture<Void> operation : operations) {
+            try {
+                operation.get();
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof ResourceOperationException))
+                    throw aborted();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw aborted();
+            }
+        }
+        if (!state.compareAndSet(ACTIVE, COMMITTING))
+            throw aborted();
+
+        if (involved == 0) {
+            state.set(ENDED);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (Integer.bitCount(involved) == 1) {
+            try {
+                coordinator.participant(Integer.numberOfTrailingZeros(involved)).commitOnePhase(id)
+                        .orTimeout(coordinator.timeoutNanos(), TimeUnit.NANOSECONDS).join();
+            } catch (CompletionException e) {
+                // The participant rolls back if it cannot commit. If the reply
+                // timed out instead, it may have committed after all. The abort
+                // still goes out, in case the commit has not been handled yet.
+                if (!(unwrap(e) instanceof TimeoutException))
+                    throw abortCommit();
+                state.set(IN_DOUBT);
+                sendAborts();
+                throw new TransactionOutcomeUnknownException();
+            }
+            state.set(ENDED);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<CompletableFuture<Boolean>> votes = new ArrayList<>();
+        for (int p = 0; p < coordinator.getParticipantCount(); p++) {
+            if ((involved & 1 << p) != 0)
+                votes.add(coordinator.participant(p).prepare(id)
+                        .orTimeout(coordinator.timeoutNanos(), TimeUnit.NANOSECONDS));
+        }
+        for (CompletableFuture<Boolean> vote : votes) {
+            boolean yes;
+            try {
+                yes = vote.join();
+            } catch (CompletionException e) {
+                yes = false;
+            }
+            if (!yes)
+                throw abortCommit();
+        }
+
+        coordinator.logCommit(id, involved);
+        state.set(ENDED);
+        return coordinator.deliverCommit(id, involved);
+    }
+
+    // Tells every participant to abort. Nothing is logged.
+    public void rollback() {
+        abort();
+    }
+
+    public boolean isAborted() {
+        return state.get() == ABORTED;
+    }
+
+    private void checkActive() throws ActiveTransactionAborted {
+        int current = state.get();
+        if (current == ABORTED)
+            throw new ActiveTransactionAborted();
+        if (current != ACTIVE)
+            throw new IllegalStateException("Global transaction " + id + " has ended");
+    }
+
+    private ActiveTransactionAborted aborted() {
+        abort();
+        return new ActiveTransactionAborted();
+    }
+
+    // May run on any thread that completes a reply.
+    private void abort() {
+        if (state.compareAndSet(ACTIVE, ABORTED))
+            sendAborts();
+    }
+
+    private ActiveTransactionAborted abortCommit() {
+        state.set(ABORTED);
+        sendAborts();
+        return new ActiveTransactionAborted();
+    }
+
+    private void sendAborts() {
+        int involved = this.involved;
+        for (int p = 0; p < coordinator.getParticipantCount(); p++) {
+            if ((involved & 1 << p) != 0)
+                coordinator.participant(p).abort(id);
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+}
@@ -0,0 +1,37 @@
+package cp1.solution;
+
+import java.util.Arrays;
+
+// Slots of resources acquired by a single transaction, in acquisition order.
+// Each resource is acquired at most once per transaction, so no deduplication is needed.
+// Only the owning thread touches it.
+final class HeldResources {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    void add(int slot) {
+        if (size == slots.length)
+            slots = Arrays.copyOf(slots, size * 2);
+
+        slots[size++] = slot;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(int i) {
+        return slots[i];
+    }
+
+    // Drops all but the first n slots.
+    void truncate(int n) {
+        size = n;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,27 @@
+package cp1.solution;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free histogram with one bucket per power of two: bucket 0 counts
+// values of 0 and below, bucket i > 0 counts values in [2^(i-1), 2^i).
+final class Log2Histogram {
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    Log2Histogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    void record(long value) {
+        buckets[value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value)].increment();
+    }
+
+    long[] counts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = buckets[i].sum();
+        return counts;
+    }
+}
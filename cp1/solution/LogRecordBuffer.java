@@ -0,0 +1,45 @@
+package cp1.solution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import cp1.base.OperationSerializer;
+import cp1.base.ResourceOperation;
+
+// Scratch space in which a thread builds a log record, header included,
+// before DurableLog copies it into the log, so that serialization and the
+// checksum run outside the log's lock. Only the owning thread touches it.
+final class LogRecordBuffer extends ByteArrayOutputStream {
+    private final DataOutputStream out = new DataOutputStream(this);
+    private final CRC32 crc = new CRC32();
+
+    LogRecordBuffer() {
+        super(64);
+    }
+
+    // Builds a record of a given type. The operation is null except for APPLY.
+    void build(byte type, long transactionId, int argument, ResourceOperation operation,
+               OperationSerializer serializer) throws IOException {
+        reset();
+        out.write(DurableLog.EMPTY_HEADER);
+        if (operation != null) {
+            serializer.write(operation, out);
+            out.flush();
+        }
+        ByteBuffer header = ByteBuffer.wrap(buf);
+        header.putInt(0, count);
+        header.put(8, type);
+        header.putLong(9, transactionId);
+        header.putInt(17, argument);
+        crc.reset();
+        crc.update(buf, 8, count - 8);
+        header.putInt(4, (int) crc.getValue());
+    }
+
+    byte[] array() {
+        return buf;
+    }
+}
@@ -0,0 +1,90 @@
+package cp1.solution;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import cp1.base.Participant;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+
+// In-process stand-in for the network between a coordinator and its
+// participants. Every message and every reply is delivered after a fixed
+// one-way delay by a single thread, so messages arrive in the order they
+// were sent. Operations are handed over as objects; a transport between
+// processes would write them with an OperationSerializer.
+public final class LoopbackTransport implements AutoCloseable {
+    private final long delayNanos;
+
+    // Null if there is no delay, in which case messages are delivered at once
+    // on the sending thread and replies on the replying one.
+    private final ScheduledExecutorService network;
+
+    public LoopbackTransport(long oneWayDelayMicros) {
+        if (oneWayDelayMicros < 0)
+            throw new IllegalArgumentException("Negative delay");
+
+        this.delayNanos = TimeUnit.MICROSECONDS.toNanos(oneWayDelayMicros);
+        if (delayNanos == 0) {
+            network = null;
+        } else {
+            network = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "loopback transport");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // Returns a participant whose messages reach a given one through this transport.
+    public Participant connect(Participant target) {
+        return new Participant() {
+            @Override
+            public CompletableFuture<Void> operate(long transactionId, ResourceId rid, ResourceOperation operation) {
+                return send(() -> target.operate(transactionId, rid, operation));
+            }
+
+            @Override
+            public CompletableFuture<Boolean> prepare(long transactionId) {
+                return send(() -> target.prepare(transactionId));
+            }
+
+            @Override
+            public CompletableFuture<Void> commit(long transactionId) {
+                return send(() -> target.commit(transactionId));
+            }
+
+            @Override
+            public CompletableFuture<Void> commitOnePhase(long transactionId) {
+                return send(() -> target.commitOnePhase(transactionId));
+            }
+
+            @Override
+            public CompletableFuture<Void> abort(long transactionId) {
+                return send(() -> target.abort(transactionId));
+            }
+        };
+    }
+
+    private <T> CompletableFuture<T> send(Supplier<CompletableFuture<T>> message) {
+        if (network == null)
+            return message.get();
+
+        CompletableFuture<T> reply = new CompletableFuture<>();
+        network.schedule(() -> message.get().whenComplete((value, failure) -> network.schedule(() -> {
+            if (failure != null)
+                reply.completeExceptionally(failure);
+            else
+                reply.complete(value);
+        }, delayNanos, TimeUnit.NANOSECONDS)), delayNanos, TimeUnit.NANOSECONDS);
+        return reply;
+    }
+
+    @Override
+    public void close() {
+        if (network != null)
+            network.shutdownNow();
+    }
+}
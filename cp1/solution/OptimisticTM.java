@@ -0,0 +1,344 @@
+package cp1.solution;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.AnotherTransactionActiveException;
+import cp1.base.BatchOperation;
+import cp1.base.LocalTimeProvider;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.ReadOnlyOperation;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.Savepoint;
+import cp1.base.SubTransaction;
+import cp1.base.TransactionManager;
+import cp1.base.UnknownResourceIdException;
+
+// Optimistic transaction manager. Operations change resources in place, so
+// writes cannot be deferred to commit time like in a multi-version store;
+// instead a write takes an intent on its resource that fails at once if
+// another transaction has one, and the loser is aborted rather than queued.
+// Read-only operations take nothing: they remember the resource's version
+// and are validated at commit, when a version that has moved or an intent
+// of another transaction aborts the committing transaction. Nobody ever
+// waits, so there are no deadlocks to detect. Read-only operations may run
+// concurrently with a write to the same resource, whose effects they may
+// observe before the reading transaction is aborted.
+public class OptimisticTM implements TransactionManager {
+    private static final VarHandle WRITERS = MethodHandles.arrayElementVarHandle(Transaction[].class);
+    private static final VarHandle VERSIONS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private LocalTimeProvider timeProvider;
+
+    private final ThreadLocal<Transaction> transactions =
+            ThreadLocal.withInitial(() -> new Transaction(Thread.currentThread()));
+
+    private final ResourceIndex resources;
+
+    // Transaction holding the write intent on each resource or null, by slot.
+    private final Transaction[] writers;
+
+    // Version of each resource, by slot. Bumped whenever a write intent is
+    // released, before it is released, whether the writer committed or
+    // rolled back, since a reader may have seen either the change or its undo.
+    private final long[] versions;
+
+    public OptimisticTM(Collection<Resource> resources,
+                        LocalTimeProvider timeProvider) {
+        this.timeProvider = timeProvider;
+        this.resources = new ResourceIndex(resources);
+        writers = new Transaction[this.resources.size()];
+        versions = new long[this.resources.size()];
+    }
+
+    private static void abort(Transaction transaction) throws ActiveTransactionAborted {
+        transaction.state = Transaction.ABORTED;
+        throw new ActiveTransactionAborted();
+    }
+
+    // Takes the write intent on a resource or aborts the transaction.
+    private void claim(Transaction transaction, int slot) throws ActiveTransactionAborted {
+        Transaction writer = (Transaction) WRITERS.getVolatile(writers, slot);
+        if (writer == transaction)
+            return;
+
+        if (writer != null || !WRITERS.compareAndSet(writers, slot, null, transaction))
+            abort(transaction);
+
+        transaction.held.add(slot);
+    }
+
+    // Records the version of a resource about to be read, or aborts the
+    // transaction if another one is writing the resource. The version is read
+    // before the intent, so a writer that comes later moves it.
+    private void read(Transaction transaction, int slot) throws ActiveTransactionAborted {
+        long version = (long) VERSIONS.getVolatile(versions, slot);
+        Transaction writer = (Transaction) WRITERS.getVolatile(writers, slot);
+        if (writer == transaction)
+            return;
+
+        if (writer != null)
+            abort(transaction);
+
+        transaction.reads.add(slot, version);
+    }
+
+    // Checks that nothing the transaction has read was written since.
+    // Runs with all the transaction's write intents held, which makes
+    // the check the point at which the transaction takes effect.
+    private boolean validate(Transaction transaction) {
+        ReadSet reads = transaction.reads;
+        for (int i = 0; i < reads.size(); i++) {
+            int slot = reads.slot(i);
+            Transaction writer = (Transaction) WRITERS.getVolatile(writers, slot);
+            if (writer != null && writer != transaction)
+                return false;
+
+            if ((long) VERSIONS.getVolatile(versions, slot) != reads.version(i))
+                return false;
+        }
+        return true;
+    }
+
+    private void releaseIntents(Transaction transaction) {
+        transaction.reads.clear();
+        releaseIntents(transaction, 0);
+    }
+
+    // Releases the write intents taken after the first n. A read the
+    // transaction made of such a resource before taking the intent moves on
+    // with the version, unless another transaction wrote the resource in
+    // between, so that the transaction does not fail validation on its own
+    // release.
+    private void releaseIntents(Transaction transaction, int n) {
+        HeldResources held = transaction.held;
+        for (int i = n; i < held.size(); i++) {
+            int slot = held.get(i);
+            long version = (long) VERSIONS.getVolatile(versions, slot);
+            VERSIONS.setVolatile(versions, slot, version + 1);
+            WRITERS.setVolatile(writers, slot, null);
+            transaction.reads.advance(slot, version);
+        }
+        held.truncate(n);
+    }
+
+    private Transaction activeTransaction() throws NoActiveTransactionException, ActiveTransactionAborted {
+        Transaction transaction = transactions.get();
+        if (transaction.state == Transaction.INACTIVE)
+            throw new NoActiveTransactionException();
+
+        if (transaction.state == Transaction.ABORTED)
+            throw new ActiveTransactionAborted();
+
+        return transaction;
+    }
+
+    // Takes what an operation needs: the version of the resource if it is
+    // read-only, the write intent otherwise. Aborts the transaction on a conflict.
+    private void take(Transaction transaction, int slot, ResourceOperation operation)
+            throws ActiveTransactionAborted {
+        if (operation instanceof ReadOnlyOperation)
+            read(transaction, slot);
+        else
+            claim(transaction, slot);
+    }
+
+    private void apply(Transaction transaction, int slot, ResourceId rid, ResourceOperation operation)
+            throws ActiveTransactionAborted, ResourceOperationException, InterruptedException {
+        take(transaction, slot, operation);
+        applyTaken(transaction, slot, rid, operation);
+    }
+
+    // Applies an operation whose version or intent the transaction has taken.
+    private void applyTaken(Transaction transaction, int slot, ResourceId rid, ResourceOperation operation)
+            throws ResourceOperationException, InterruptedException {
+        Resource res = resources.get(slot);
+        try {
+            res.apply(operation);
+        } catch (ResourceOperationException e) {
+            throw new ResourceOperationException(rid, operation);
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            res.unapply(operation);
+            throw new InterruptedException();
+        }
+
+        transaction.undoLog.append(slot, operation);
+    }
+
+    public void startTransaction() throws AnotherTransactionActiveException {
+        startTransaction(0);
+    }
+
+    // Nobody waits, so the priority has nothing to order; conflicts are
+    // still lost by whoever comes second.
+    public void startTransaction(int priority) throws AnotherTransactionActiveException {
+        Transaction transaction = transactions.get();
+        if (transaction.state != Transaction.INACTIVE)
+            throw new AnotherTransactionActiveException();
+
+        transaction.generation++;
+        transaction.savepoints = 0;
+        transaction.startTime = timeProvider.getTime();
+        transaction.state = Transaction.ACTIVE;
+    }
+
+    // Takes write intents on the whole set up front, so the transaction
+    // learns about conflicting writers before doing any work.
+    public void startTransaction(Collection<ResourceId> rids)
+            throws
+            AnotherTransactionActiveException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            InterruptedException {
+
+        if (transactions.get().state != Transaction.INACTIVE)
+            throw new AnotherTransactionActiveException();
+
+        for (ResourceId rid : rids) {
+            if (resources.slotOf(rid) < 0)
+                throw new UnknownResourceIdException(rid);
+        }
+
+        startTransaction();
+        Transaction transaction = transactions.get();
+
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+
+        for (ResourceId rid : rids)
+            claim(transaction, resources.slotOf(rid));
+    }
+
+    public void operateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation)
+            throws
+            NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException {
+
+        Transaction transaction = activeTransaction();
+
+        int slot = resources.slotOf(rid);
+        if (slot < 0)
+            throw new UnknownResourceIdException(rid);
+
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+
+        apply(transaction, slot, rid, operation);
+    }
+
+    // Every intent and version of the batch is taken before anything is
+    // applied, so that a conflict aborts the transaction with the batch
+    // unapplied. A failed operation leaves the ones before it applied, in
+    // the undo log, as in TM.
+    public void operateOnResourcesInCurrentTransaction(List<BatchOperation> operations)
+            throws
+            NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException {
+
+        Transaction transaction = activeTransaction();
+
+        int n = operations.size();
+        for (int i = 0; i < n; i++) {
+            ResourceId rid = operations.get(i).getResourceId();
+            if (resources.slotOf(rid) < 0)
+                throw new UnknownResourceIdException(rid);
+        }
+
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+
+        for (int i = 0; i < n; i++) {
+            BatchOperation step = operations.get(i);
+            take(transaction, resources.slotOf(step.getResourceId()), step.getResourceOperation());
+        }
+
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+
+        for (int i = 0; i < n; i++) {
+            BatchOperation step = operations.get(i);
+            applyTaken(transaction, resources.slotOf(step.getResourceId()), step.getResourceId(),
+                    step.getResourceOperation());
+        }
+    }
+
+    public void commitCurrentTransaction()
+            throws
+            NoActiveTransactionException,
+            ActiveTransactionAborted {
+        Transaction transaction = activeTransaction();
+
+        if (!validate(transaction))
+            abort(transaction);
+
+        transaction.undoLog.clear();
+        releaseIntents(transaction);
+        transaction.state = Transaction.INACTIVE;
+    }
+
+    // Nothing is logged, so the commit is complete when it returns.
+    public CompletableFuture<Void> commitCurrentTransactionAsync()
+            throws
+            NoActiveTransactionException,
+            ActiveTransactionAborted {
+        commitCurrentTransaction();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    public void rollbackCurrentTransaction() {
+        Transaction transaction = transactions.get();
+        transaction.undoLog.undo(resources);
+        releaseIntents(transaction);
+        transaction.state = Transaction.INACTIVE;
+    }
+
+    public Savepoint createSavepoint() throws NoActiveTransactionException, ActiveTransactionAborted {
+        Transaction transaction = activeTransaction();
+        return new TransactionSavepoint(transaction, transaction.savepoints++, transaction.undoLog.size(),
+                transaction.held.size(), 0);
+    }
+
+    // Reads made since the savepoint are still validated at commit.
+    public void rollbackToSavepoint(Savepoint savepoint, boolean releaseResources)
+            throws
+            NoActiveTransactionException,
+            ActiveTransactionAborted {
+        Transaction transaction = activeTransaction();
+        if (!(savepoint instanceof TransactionSavepoint) || !((TransactionSavepoint) savepoint).isLiveIn(transaction))
+            throw new IllegalArgumentException("Savepoint is not valid in the current transaction");
+
+        TransactionSavepoint target = (TransactionSavepoint) savepoint;
+        transaction.undoLog.undoTo(resources, target.undoSize);
+        if (releaseResources)
+            releaseIntents(transaction, target.heldSize);
+        transaction.savepoints = target.index + 1;
+    }
+
+    public SubTransaction startSubTransaction() throws NoActiveTransactionException, ActiveTransactionAborted {
+        activeTransaction();
+        throw new UnsupportedOperationException("Sub-transactions of an optimistic manager");
+    }
+
+    public boolean isTransactionActive() {
+        return transactions.get().state != Transaction.INACTIVE;
+    }
+
+    public boolean isTransactionAborted() {
+        return transactions.get().state == Transaction.ABORTED;
+    }
+}
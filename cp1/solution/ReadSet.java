@@ -0,0 +1,48 @@
+package cp1.solution;
+
+import java.util.Arrays;
+
+// Resources read by the current optimistic transaction of one thread, with the
+// version each had when it was read, as parallel arrays. Cleared rather than
+// reallocated between transactions. Only the owning thread touches it.
+final class ReadSet {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private long[] versions = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    void add(int slot, long version) {
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+            versions = Arrays.copyOf(versions, size * 2);
+        }
+        slots[size] = slot;
+        versions[size] = version;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int slot(int i) {
+        return slots[i];
+    }
+
+    long version(int i) {
+        return versions[i];
+    }
+
+    // Moves the reads of a slot that saw a given version on to the next one.
+    void advance(int slot, long version) {
+        for (int i = 0; i < size; i++) {
+            if (slots[i] == slot && versions[i] == version)
+                versions[i] = version + 1;
+        }
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,161 @@
+package cp1.solution;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import cp1.base.IndexedResourceId;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+
+// Immutable mapping from resource ids to dense slots 0..size()-1.
+// Built once, so it can be read by every thread without synchronization.
+final class ResourceIndex {
+    // Ordinal tables larger than this multiple of the resource count
+    // are considered too sparse and the index falls back to hashing.
+    private static final int MAX_SPARSITY = 4;
+
+    private final Resource[] resources;
+
+    // Used when every id is an IndexedResourceId with a compact ordinal range.
+    private final int[] slotByOrdinal;
+
+    // Used otherwise; null when the dense table is in use.
+    private final Map<ResourceId, Integer> slotById;
+
+    // Slots in ResourceId.compareTo order and the inverse mapping.
+    // Built on first use, since not every client needs its ids to be
+    // mutually comparable. Racing builders produce equal tables.
+    private volatile int[] slotByRank;
+    private volatile int[] rankBySlot;
+
+    ResourceIndex(Collection<Resource> resources) {
+        Map<ResourceId, Integer> byId = new HashMap<>();
+        Resource[] unique = new Resource[resources.size()];
+        int size = 0;
+        boolean indexed = true;
+        int maxOrdinal = -1;
+        for (Resource r : resources) {
+            ResourceId rid = r.getId();
+            if (byId.putIfAbsent(rid, size) != null)
+                continue;
+
+            unique[size++] = r;
+            if (rid instanceof IndexedResourceId) {
+                int ordinal = ((IndexedResourceId) rid).getIndex();
+                if (ordinal < 0)
+                    indexed = false;
+                else
+                    maxOrdinal = Math.max(maxOrdinal, ordinal);
+            } else {
+                indexed = false;
+            }
+        }
+
+        this.resources = new Resource[size];
+        System.arraycopy(unique, 0, this.resources, 0, size);
+
+        if (indexed && (long) maxOrdinal < (long) MAX_SPARSITY * size + 16) {
+            slotByOrdinal = new int[maxOrdinal + 1];
+            Arrays.fill(slotByOrdinal, -1);
+            for (int slot = 0; slot < size; slot++) {
+                int ordinal = ((IndexedResourceId) this.resources[slot].getId()).getIndex();
+                slotByOrdinal[ordinal] = slot;
+            }
+            slotById = null;
+        } else {
+            slotByOrdinal = null;
+            slotById = byId;
+        }
+    }
+
+    int size() {
+        return resources.length;
+    }
+
+    Resource get(int slot) {
+        return resources[slot];
+    }
+
+    // Returns the slot of a given id or -1 if the id is unknown.
+    int slotOf(ResourceId rid) {
+        if (rid == null)
+            return -1;
+
+        if (slotByOrdinal != null) {
+            if (!(rid instanceof IndexedResourceId))
+                return -1;
+
+            int ordinal = ((IndexedResourceId) rid).getIndex();
+            if (ordinal < 0 || ordinal >= slotByOrdinal.length)
+                return -1;
+
+            int slot = slotByOrdinal[ordinal];
+            if (slot < 0 || !resources[slot].getId().equals(rid))
+                return -1;
+
+            return slot;
+        }
+
+        Integer slot = slotById.get(rid);
+        return slot == null ? -1 : slot;
+    }
+
+    // Sorts the first n entries of slots by the ids of their resources.
+    // Equal slots end up next to each other. Already sorted input, the
+    // common case for batches built from ordered ids, is only scanned.
+    void sortByResourceId(int[] slots, int n) {
+        int[] ranks = rankBySlot;
+        if (ranks == null)
+            ranks = buildRanks();
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++)
+            sorted = ranks[slots[i - 1]] <= ranks[slots[i]];
+        if (sorted)
+            return;
+
+        int[] bySlot = slotByRank;
+        for (int i = 0; i < n; i++)
+            slots[i] = ranks[slots[i]];
+        Arrays.sort(slots, 0, n);
+        for (int i = 0; i < n; i++)
+            slots[i] = bySlot[slots[i]];
+    }
+
+    // Position of the resource in a given slot in ResourceId order.
+    int rankOf(int slot) {
+        int[] ranks = rankBySlot;
+        if (ranks == null)
+            ranks = buildRanks();
+        return ranks[slot];
+    }
+
+    // Slot of the resource at a given position in ResourceId order.
+    // Only valid after rankOf or sortByResourceId has been called.
+    int slotAtRank(int rank) {
+        return slotByRank[rank];
+    }
+
+    private int[] buildRanks() {
+        Integer[] order = new Integer[resources.length];
+        for (int slot = 0; slot < order.length; slot++)
+            order[slot] = slot;
+        Arrays.sort(order, (a, b) -> resources[a].getId().compareTo(resources[b].getId()));
+        int[] bySlot = new int[order.length];
+        int[] ranks = new int[order.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            bySlot[rank] = order[rank];
+            ranks[order[rank]] = rank;
+        }
+        slotByRank = bySlot;
+        rankBySlot = ranks;
+        return ranks;
+    }
+
+    // Returns the resource with a given id or null if the id is unknown.
+    Resource find(ResourceId rid) {
+        int slot = slotOf(rid);
+        return slot < 0 ? null : resources[slot];
+    }
+}
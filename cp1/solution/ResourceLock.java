@@ -0,0 +1,255 @@
+package cp1.solution;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Ownership and wait queue of a single resource.
+// The owner word is claimed and released with a single CAS as long as nobody
+// waits for the resource. The guard protects the queue, the reader list and
+// every hand-off to a waiter, so that holding the guards of several resources
+// gives a consistent view of the wait-for edges that go through them.
+// A resource held in shared mode has SHARED as its owner and its holders in the
+// reader list; shared acquisitions and releases always take the guard.
+// A fair resource goes to its waiters in queue order. An unfair one may be
+// taken by an arriving or spinning transaction whenever it is free, even
+// while others are queued; a queued waiter still gets it on a release that
+// nobody beats it to.
+final class ResourceLock {
+    // Spinning never goes on for longer than this, about what parking and
+    // being unparked again costs.
+    static final long MAX_SPIN_NANOS = 20_000;
+
+    private static final long INITIAL_HOLD_ESTIMATE_NANOS = 1_000;
+
+    private static final VarHandle OWNER;
+
+    static {
+        try {
+            OWNER = MethodHandles.lookup().findVarHandle(ResourceLock.class, "owner", Transaction.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Owner of a resource held by readers.
+    static final Transaction SHARED = new Transaction();
+
+    final ReentrantLock guard = new ReentrantLock();
+
+    // Transaction holding the resource exclusively, SHARED or null.
+    volatile Transaction owner = null;
+
+    // Number of queued waiters. Written under the guard, read by the fast paths.
+    private volatile int waiters = 0;
+
+    volatile boolean fair = true;
+
+    // Order of the queue for waiters queued from now on.
+    volatile WaitPolicy policy = WaitPolicy.FIFO;
+
+    // How long a transaction that finds the resource held is expected to wait
+    // for it to be freed: an exponentially weighted average of what spinners
+    // have seen. Updates race and may lose samples.
+    private volatile long holdEstimate = INITIAL_HOLD_ESTIMATE_NANOS;
+
+    // Waiting transactions in the order of the policy, except for upgrading
+    // readers, which go to the front.
+    private final ArrayDeque<Transaction> queue = new ArrayDeque<>();
+
+    // Scratch space for the waiters a new one overtakes. Only touched under the guard.
+    private Transaction[] overtaken = new Transaction[4];
+
+    // Transactions holding the resource in shared mode. Only touched under the guard.
+    private Transaction[] readers = new Transaction[4];
+    private int readerCount = 0;
+
+    // Fast path: takes the resource if it is free and nobody waits for it
+    // or the resource is unfair.
+    boolean tryAcquire(Transaction transaction) {
+        return (waiters == 0 || !fair) && OWNER.compareAndSet(this, null, transaction);
+    }
+
+    // Whether a spinner should give up at once: the resource is fair and
+    // others have queued for it already.
+    boolean spinnerMustQueue() {
+        return waiters != 0 && fair;
+    }
+
+    // How long to spin for the resource, or 0 to queue at once. A resource
+    // that is held for longer than spinning may last is not spun on, but its
+    // estimate decays with every such decision, so that it is tried again.
+    long spinBudget() {
+        long estimate = holdEstimate;
+        if (estimate > MAX_SPIN_NANOS) {
+            holdEstimate = estimate - (estimate >> 4);
+            return 0;
+        }
+        return Math.min(MAX_SPIN_NANOS, 2 * estimate);
+    }
+
+    // Records how long a spinner waited for the resource to be freed. One
+    // that gave up after spinning for its budget records twice that.
+    void recordSpin(long nanos) {
+        long estimate = holdEstimate;
+        holdEstimate = estimate + ((nanos - estimate) >> 2);
+    }
+
+    // Fast path: frees the resource. Returns true if there are waiters,
+    // in which case the caller has to take the guard and hand the resource off.
+    // Only the exclusive owner may call it.
+    boolean release(Transaction transaction) {
+        OWNER.compareAndSet(this, transaction, null);
+        return waiters != 0;
+    }
+
+    // Joins the readers if the resource is free or shared and nobody waits for it,
+    // so that waiting writers are not starved. Must hold the guard.
+    boolean tryAcquireShared(Transaction transaction) {
+        if (waiters != 0 || (owner != SHARED && !OWNER.compareAndSet(this, null, SHARED)))
+            return false;
+
+        addReader(transaction);
+        return true;
+    }
+
+    // Leaves the readers, freeing the resource if it was the last one.
+    // The caller has to try a hand-off afterwards. Must hold the guard.
+    void releaseShared(Transaction transaction) {
+        for (int i = 0; i < readerCount; i++) {
+            if (readers[i] == transaction) {
+                readers[i] = readers[--readerCount];
+                readers[readerCount] = null;
+                break;
+            }
+        }
+        if (readerCount == 0)
+            owner = null;
+    }
+
+    // Turns the only reader into the exclusive owner. Must hold the guard.
+    boolean tryUpgrade(Transaction transaction) {
+        if (readerCount != 1 || readers[0] != transaction)
+            return false;
+
+        readers[0] = null;
+        readerCount = 0;
+        owner = transaction;
+        return true;
+    }
+
+    // Must hold the guard.
+    boolean isReader(Transaction transaction) {
+        for (int i = 0; i < readerCount; i++) {
+            if (readers[i] == transaction)
+                return true;
+        }
+        return false;
+    }
+
+    // Must hold the guard.
+    boolean holds(Transaction transaction) {
+        Transaction current = owner;
+        return current == transaction || (current == SHARED && isReader(transaction));
+    }
+
+    // Copies the readers into holders starting at a given index, growing the
+    // array if needed. Returns the array. Must hold the guard.
+    Transaction[] copyReaders(Transaction[] holders, int from) {
+        if (holders.length < from + readerCount)
+            holders = Arrays.copyOf(holders, Math.max(2 * holders.length, from + readerCount));
+        System.arraycopy(readers, 0, holders, from, readerCount);
+        return holders;
+    }
+
+    // Must hold the guard.
+    int readerCount() {
+        return readerCount;
+    }
+
+    // Queues a waiter. The caller has to try a hand-off afterwards,
+    // as the resource may have been freed in the meantime. Must hold the guard.
+    // A waiter that goes ahead of others under the policy is put in place
+    // by taking those off the tail and putting them back behind it, so it
+    // costs as much as the number of waiters overtaken.
+    void enqueue(Transaction waiter) {
+        WaitPolicy policy = this.policy;
+        if (policy == WaitPolicy.FIFO) {
+            queue.addLast(waiter);
+            waiters = queue.size();
+            return;
+        }
+
+        int n = 0;
+        Transaction last;
+        // A reader in the queue is waiting to upgrade and is not overtaken.
+        while ((last = queue.peekLast()) != null && goesBefore(waiter, last, policy) && !isReader(last)) {
+            if (n == overtaken.length)
+                overtaken = Arrays.copyOf(overtaken, 2 * n);
+            overtaken[n++] = queue.pollLast();
+        }
+        queue.addLast(waiter);
+        while (n > 0) {
+            queue.addLast(overtaken[--n]);
+            overtaken[n] = null;
+        }
+        waiters = queue.size();
+    }
+
+    private static boolean goesBefore(Transaction waiter, Transaction other, WaitPolicy policy) {
+        if (policy == WaitPolicy.PRIORITY)
+            return waiter.priority > other.priority;
+        return waiter.isOlderThan(other);
+    }
+
+    // Queues a reader that waits to become the exclusive owner. It goes ahead
+    // of everyone else, since they all wait for it anyway. Must hold the guard.
+    void enqueueUpgrade(Transaction waiter) {
+        queue.addFirst(waiter);
+        waiters = queue.size();
+    }
+
+    // Gives the resource to the first waiter if it can have it now.
+    // Returns the new holder, which the caller has to grant the resource
+    // once it has cleared the waiter's bookkeeping. A shared grant may be
+    // followed by more, so the caller repeats until it gets null.
+    // Must hold the guard.
+    Transaction handOff() {
+        Transaction next = queue.peekFirst();
+        if (next == null)
+            return null;
+
+        if (next.waitingShared) {
+            if (owner != SHARED && !OWNER.compareAndSet(this, null, SHARED))
+                return null;
+
+            addReader(next);
+        } else if (owner == SHARED) {
+            if (!tryUpgrade(next))
+                return null;
+        } else if (!OWNER.compareAndSet(this, null, next)) {
+            return null;
+        }
+
+        queue.pollFirst();
+        waiters = queue.size();
+        return next;
+    }
+
+    // Removes a waiter that gives up waiting. The caller has to try a hand-off
+    // afterwards, as the waiter may have held back shared waiters behind it.
+    // Must hold the guard.
+    boolean remove(Transaction waiter) {
+        boolean removed = queue.remove(waiter);
+        waiters = queue.size();
+        return removed;
+    }
+
+    private void addReader(Transaction transaction) {
+        if (readerCount == readers.length)
+            readers = Arrays.copyOf(readers, 2 * readerCount);
+        readers[readerCount++] = transaction;
+    }
+}
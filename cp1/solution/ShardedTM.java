@@ -0,0 +1,401 @@
+package cp1.solution;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.AnotherTransactionActiveException;
+import cp1.base.BatchOperation;
+import cp1.base.LocalTimeProvider;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.Savepoint;
+import cp1.base.SubTransaction;
+import cp1.base.TransactionManager;
+import cp1.base.UnknownResourceIdException;
+
+// Transaction manager that splits the resources by the hash of their ids
+// among a number of TMs, the shards, each with its own index, metrics and
+// deadlock detector. A transaction has a part in each shard it touches,
+// started on first use, and a transaction that stays within one shard
+// never touches the state of the others. Deadlock detection follows
+// wait-for edges across shards: a shard's locks are also entered into an
+// array shared by all shards, waiting parts record their slot in that
+// array, and a part that holds a resource leads on to the part of the same
+// thread that waits, in whatever shard. All parts of a transaction start
+// with the time of the whole transaction, so that the victim is the same
+// whichever shard finds the cycle. Committing or rolling back commits or
+// rolls back every part, and a transaction is aborted if any part is.
+public class ShardedTM implements TransactionManager {
+    private final LocalTimeProvider timeProvider;
+
+    private final TM[] shards;
+
+    private final ThreadLocal<ShardedTransaction> transactions =
+            ThreadLocal.withInitial(this::newTransaction);
+
+    public ShardedTM(Collection<Resource> resources,
+                     LocalTimeProvider timeProvider,
+                     DeadlockDetection detection,
+                     long detectionIntervalMillis,
+                     int shardCount) {
+        if (shardCount <= 0)
+            throw new IllegalArgumentException("Shard count must be positive");
+
+        this.timeProvider = timeProvider;
+        List<List<Resource>> partitions = new ArrayList<>(shardCount);
+        for (int s = 0; s < shardCount; s++)
+            partitions.add(new ArrayList<>());
+        for (Resource resource : resources)
+            partitions.get(shardOf(resource.getId(), shardCount)).add(resource);
+
+        ResourceLock[] allLocks = new ResourceLock[resources.size()];
+        shards = new TM[shardCount];
+        int slotBase = 0;
+        for (int s = 0; s < shardCount; s++) {
+            int shard = s;
+            shards[s] = new TM(partitions.get(s), () -> partTime(shard), detection, detectionIntervalMillis,
+                    allLocks, slotBase);
+            slotBase += partitions.get(s).size();
+        }
+        for (TM shard : shards)
+            shard.startDetection();
+    }
+
+    private static int shardOf(ResourceId rid, int shardCount) {
+        return Math.floorMod(rid.hashCode(), shardCount);
+    }
+
+    // Runs on the thread the transaction belongs to, which creates its
+    // state objects in the shards on the way.
+    private ShardedTransaction newTransaction() {
+        Transaction[] parts = new Transaction[shards.length];
+        for (int s = 0; s < shards.length; s++)
+            parts[s] = shards[s].ownTransaction();
+        return new ShardedTransaction(parts);
+    }
+
+    // The time provider of a shard: a part starts at the time of the whole
+    // transaction, anything else gets the current time.
+    private long partTime(int shard) {
+        ShardedTransaction transaction = transactions.get();
+        if (transaction.parts[shard].state == Transaction.INACTIVE)
+            return transaction.startTime;
+        return timeProvider.getTime();
+    }
+
+    // Returns the shard of a resource, or throws if no shard has it.
+    private int shardFor(ResourceId rid) throws UnknownResourceIdException {
+        int shard = shardOf(rid, shards.length);
+        if (!shards[shard].manages(rid))
+            throw new UnknownResourceIdException(rid);
+        return shard;
+    }
+
+    private ShardedTransaction activeTransaction() throws NoActiveTransactionException, ActiveTransactionAborted {
+        ShardedTransaction transaction = transactions.get();
+        if (!transaction.active)
+            throw new NoActiveTransactionException();
+
+        if (transaction.aborted)
+            throw new ActiveTransactionAborted();
+
+        return transaction;
+    }
+
+    // Starts the part of the current transaction in a shard if it has not started yet.
+    private TM startPart(ShardedTransaction transaction, int shard) {
+        TM tm = shards[shard];
+        if (transaction.started[shard])
+            return tm;
+
+        try {
+            tm.startTransaction(transaction.priority);
+        } catch (AnotherTransactionActiveException e) {
+            throw new IllegalStateException(e);
+        }
+        transaction.started[shard] = true;
+        if (transaction.savepoints > 0) {
+            try {
+                transaction.origins[shard] = (TransactionSavepoint) tm.createSavepoint();
+            } catch (NoActiveTransactionException | ActiveTransactionAborted e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return tm;
+    }
+
+    private static ActiveTransactionAborted aborted(ShardedTransaction transaction, ActiveTransactionAborted e) {
+        transaction.aborted = true;
+        return e;
+    }
+
+    public void startTransaction() throws AnotherTransactionActiveException {
+        startTransaction(0);
+    }
+
+    public void startTransaction(int priority) throws AnotherTransactionActiveException {
+        ShardedTransaction transaction = transactions.get();
+        if (transaction.active)
+            throw new AnotherTransactionActiveException();
+
+        transaction.generation++;
+        transaction.savepoints = 0;
+        transaction.aborted = false;
+        transaction.startTime = timeProvider.getTime();
+        transaction.priority = priority;
+        transaction.active = true;
+    }
+
+    // The declared set is acquired shard by shard in shard order, and in id
+    // order within each shard, which is again one global order.
+    public void startTransaction(Collection<ResourceId> rids)
+            throws
+            AnotherTransactionActiveException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            InterruptedException {
+
+        ShardedTransaction transaction = transactions.get();
+        if (transaction.active)
+            throw new AnotherTransactionActiveException();
+
+        List<List<ResourceId>> declared = new ArrayList<>(shards.length);
+        for (int s = 0; s < shards.length; s++)
+            declared.add(null);
+        for (ResourceId rid : rids) {
+            int shard = shardFor(rid);
+            if (declared.get(shard) == null)
+                declared.set(shard, new ArrayList<>());
+            declared.get(shard).add(rid);
+        }
+
+        startTransaction();
+
+        for (int s = 0; s < shards.length; s++) {
+            if (declared.get(s) == null)
+                continue;
+
+            transaction.started[s] = true;
+            try {
+                shards[s].startTransaction(declared.get(s), transaction.priority);
+            } catch (ActiveTransactionAborted e) {
+                throw aborted(transaction, e);
+            }
+        }
+    }
+
+    public void operateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation)
+            throws
+            NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException {
+
+        // An unknown id is reported by the shard it would belong to.
+        ShardedTransaction transaction = activeTransaction();
+        TM tm = startPart(transaction, shardOf(rid, shards.length));
+        try {
+            tm.operateOnResourceInCurrentTransaction(rid, operation);
+        } catch (ActiveTransactionAborted e) {
+            throw aborted(transaction, e);
+        }
+    }
+
+    // Every shard acquires its part of the batch, in shard order, before any
+    // operation is applied, so the batch is still applied in list order.
+    public void operateOnResourcesInCurrentTransaction(List<BatchOperation> operations)
+            throws
+            NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException {
+
+        ShardedTransaction transaction = activeTransaction();
+        List<List<BatchOperation>> batches = new ArrayList<>(shards.length);
+        for (int s = 0; s < shards.length; s++)
+            batches.add(null);
+        for (BatchOperation operation : operations) {
+            int shard = shardFor(operation.getResourceId());
+            if (batches.get(shard) == null)
+                batches.set(shard, new ArrayList<>());
+            batches.get(shard).add(operation);
+        }
+
+        try {
+            for (int s = 0; s < shards.length; s++) {
+                if (batches.get(s) != null)
+                    startPart(transaction, s).acquireBatch(batches.get(s));
+            }
+            for (BatchOperation operation : operations) {
+                shards[shardOf(operation.getResourceId(), shards.length)].operateOnResourceInCurrentTransaction(
+                        operation.getResourceId(), operation.getResourceOperation());
+            }
+        } catch (ActiveTransactionAborted e) {
+            throw aborted(transaction, e);
+        }
+    }
+
+    public void commitCurrentTransaction()
+            throws
+            NoActiveTransactionException,
+            ActiveTransactionAborted {
+        ShardedTransaction transaction = activeTransaction();
+        for (int s = 0; s < shards.length; s++) {
+            if (transaction.started[s] && transaction.parts[s].state == Transaction.ABORTED)
+                throw aborted(transaction, new ActiveTransactionAborted());
+        }
+
+        for (int s = 0; s < shards.length; s++) {
+            if (transaction.started[s]) {
+                shards[s].commitCurrentTransaction();
+                transaction.started[s] = false;
+            }
+        }
+        endTransaction(transaction);
+    }
+
+    // Nothing is logged, so a commit is durable as soon as it returns.
+    public CompletableFuture<Void> commitCurrentTransactionAsync()
+            throws
+            NoActiveTransactionException,
+            ActiveTransactionAborted {
+        commitCurrentTransaction();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    public void rollbackCurrentTransaction() {
+        ShardedTransaction transaction = transactions.get();
+        for (int s = 0; s < shards.length; s++) {
+            if (transaction.started[s]) {
+                shards[s].rollbackCurrentTransaction();
+                transaction.started[s] = false;
+            }
+        }
+        endTransaction(transaction);
+    }
+
+    private static void endTransaction(ShardedTransaction transaction) {
+        for (int s = 0; s < transaction.origins.length; s++)
+            transaction.origins[s] = null;
+        transaction.active = false;
+        transaction.aborted = false;
+    }
+
+    // Parts would have to be waited for as one node by sub-transactions
+    // on other threads, which the shards do not support.
+    public SubTransaction startSubTransaction() throws NoActiveTransactionException, ActiveTransactionAborted {
+        activeTransaction();
+        throw new UnsupportedOperationException("Sub-transactions of a sharded manager");
+    }
+
+    // A savepoint in every started part. A part started later is rolled back
+    // to the savepoint it took at its start.
+    public Savepoint createSavepoint() throws NoActiveTransactionException, ActiveTransactionAborted {
+        ShardedTransaction transaction = activeTransaction();
+        TransactionSavepoint[] parts = new TransactionSavepoint[shards.length];
+        try {
+            for (int s = 0; s < shards.length; s++) {
+                if (transaction.started[s])
+                    parts[s] = (TransactionSavepoint) shards[s].createSavepoint();
+            }
+        } catch (ActiveTransactionAborted e) {
+            throw aborted(transaction, e);
+        }
+        return new ShardedSavepoint(transaction, transaction.savepoints++, parts);
+    }
+
+    public void rollbackToSavepoint(Savepoint savepoint, boolean releaseResources)
+            throws
+            NoActiveTransactionException,
+            ActiveTransactionAborted {
+        ShardedTransaction transaction = activeTransaction();
+        if (!(savepoint instanceof ShardedSavepoint) || !((ShardedSavepoint) savepoint).isLiveIn(transaction))
+            throw new IllegalArgumentException("Savepoint is not valid in the current transaction");
+
+        ShardedSavepoint target = (ShardedSavepoint) savepoint;
+        try {
+            for (int s = 0; s < shards.length; s++) {
+                if (!transaction.started[s])
+                    continue;
+
+                TransactionSavepoint part = target.parts[s] != null ? target.parts[s] : transaction.origins[s];
+                shards[s].rollbackToSavepoint(part, releaseResources);
+            }
+        } catch (ActiveTransactionAborted e) {
+            throw aborted(transaction, e);
+        }
+        transaction.savepoints = target.index + 1;
+    }
+
+    private static final class ShardedSavepoint implements Savepoint {
+        private final ShardedTransaction transaction;
+        private final long generation;
+        private final int index;
+
+        // By shard, null for the parts that had not started.
+        private final TransactionSavepoint[] parts;
+
+        ShardedSavepoint(ShardedTransaction transaction, int index, TransactionSavepoint[] parts) {
+            this.transaction = transaction;
+            this.generation = transaction.generation;
+            this.index = index;
+            this.parts = parts;
+        }
+
+        boolean isLiveIn(ShardedTransaction transaction) {
+            return this.transaction == transaction && generation == transaction.generation
+                    && index < transaction.savepoints;
+        }
+    }
+
+    public void setFair(ResourceId rid, boolean fair) throws UnknownResourceIdException {
+        shards[shardFor(rid)].setFair(rid, fair);
+    }
+
+    public void setWaitPolicy(ResourceId rid, WaitPolicy policy) throws UnknownResourceIdException {
+        shards[shardFor(rid)].setWaitPolicy(rid, policy);
+    }
+
+    public void setWaitPolicy(WaitPolicy policy) {
+        for (TM shard : shards)
+            shard.setWaitPolicy(policy);
+    }
+
+    public void setSpinning(boolean spinning) {
+        for (TM shard : shards)
+            shard.setSpinning(spinning);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // Returns a copy of the counters of one shard.
+    public TMMetricsSnapshot getShardMetrics(int shard) {
+        return shards[shard].getMetrics();
+    }
+
+    public boolean isTransactionActive() {
+        return transactions.get().active;
+    }
+
+    public boolean isTransactionAborted() {
+        ShardedTransaction transaction = transactions.get();
+        if (!transaction.active)
+            return false;
+
+        for (int s = 0; s < shards.length; s++) {
+            if (transaction.started[s] && transaction.parts[s].state == Transaction.ABORTED)
+                return true;
+        }
+        return transaction.aborted;
+    }
+}
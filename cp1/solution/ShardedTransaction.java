@@ -0,0 +1,47 @@
+package cp1.solution;
+
+// State of the transaction a thread runs through a ShardedTM: its parts,
+// one per shard, which are the thread's state objects in the shards and
+// are all created with this object, and which of them have been started.
+// Only the owning thread touches the fields, except for the parts, which
+// deadlock detection follows from one shard into another.
+final class ShardedTransaction {
+    final Transaction[] parts;
+    final boolean[] started;
+
+    boolean active = false;
+
+    // Set once a part has been aborted, which makes the whole transaction aborted.
+    boolean aborted = false;
+
+    // Entry time and priority of the transaction, which all its parts start with.
+    long startTime;
+    int priority;
+
+    // Savepoints in the shards that every part started while the transaction
+    // had live savepoints creates at its start, by shard.
+    final TransactionSavepoint[] origins;
+
+    // Number of transactions started on this object and the number of live
+    // savepoints of the current one, as in Transaction.
+    long generation = 0;
+    int savepoints = 0;
+
+    ShardedTransaction(Transaction[] parts) {
+        this.parts = parts;
+        this.started = new boolean[parts.length];
+        this.origins = new TransactionSavepoint[parts.length];
+        for (Transaction part : parts)
+            part.shards = this;
+    }
+
+    // The part of the thread's transaction that is waiting, if any, or else
+    // a given part. At most one part waits at a time.
+    Transaction waitingPart(Transaction part) {
+        for (Transaction p : parts) {
+            if (p.waitingOn != Transaction.NOT_WAITING)
+                return p;
+        }
+        return part;
+    }
+}
@@ -0,0 +1,71 @@
+package cp1.solution;
+
+// Space-Saving summary of the most frequent keys of a stream (Metwally,
+// Agrawal, El Abbadi). Keeps a fixed number of counters, so its memory does
+// not depend on the number of distinct keys. A key that is not tracked takes
+// over the smallest counter, inheriting its count as the possible
+// overestimate; any key seen more often than total/capacity times is tracked.
+// Lookups scan the counters, which is fine for the small capacities it is
+// used with. Not thread-safe.
+final class SpaceSaving {
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Object[] labels;
+    private int size = 0;
+
+    SpaceSaving(int capacity) {
+        keys = new long[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        labels = new Object[capacity];
+    }
+
+    // Counts one occurrence of a key. The label is kept with the key while
+    // it is tracked, for keys that are not meaningful by themselves.
+    void offer(long key, Object label) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                counts[i]++;
+                return;
+            }
+        }
+        if (size < keys.length) {
+            keys[size] = key;
+            counts[size] = 1;
+            errors[size] = 0;
+            labels[size] = label;
+            size++;
+            return;
+        }
+        int min = 0;
+        for (int i = 1; i < size; i++) {
+            if (counts[i] < counts[min])
+                min = i;
+        }
+        keys[min] = key;
+        errors[min] = counts[min];
+        counts[min]++;
+        labels[min] = label;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long key(int i) {
+        return keys[i];
+    }
+
+    long count(int i) {
+        return counts[i];
+    }
+
+    long error(int i) {
+        return errors[i];
+    }
+
+    Object label(int i) {
+        return labels[i];
+    }
+}
@@ -1,20 +1,32 @@
 package cp1.solution;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import cp1.base.ResourceOperation;
 import cp1.base.TransactionManager;
 import cp1.base.LocalTimeProvider;
+import cp1.base.ReadOnlyOperation;
+import cp1.base.Savepoint;
+import cp1.base.SubTransaction;
 import cp1.base.Resource;
 import cp1.base.ResourceId;
+import cp1.base.BatchOperation;
 import cp1.base.AnotherTransactionActiveException;
 import cp1.base.ActiveTransactionAborted;
 import cp1.base.ResourceOperationException;
@@ -22,109 +34,756 @@ import cp1.base.UnknownResourceIdException;
 import cp1.base.NoActiveTransactionException;
 
 public class TM implements TransactionManager {
-    private static final Integer ACTIVE = 1;
-    private static final Integer ABORTED = 2;
+    // Default period of the PERIODIC and TIMEOUT detection strategies.
+    public static final long DEFAULT_DETECTION_INTERVAL_MILLIS = 10;
 
-    private Long ThreadtoAbort;
-    private static Semaphore mutex;
     private LocalTimeProvider timeProvider;
 
-    // To save entry time of each transaction.
-    private ConcurrentMap<Long, Long> timer;
+    private final DeadlockDetection detection;
+    private final long detectionIntervalNanos;
+
+    // State of the current transaction of each thread: status, entry time,
+    // held resources, awaited resource and undo log.
+    // Null in the virtual-thread mode, which uses activeTransactions instead.
+    private final ThreadLocal<Transaction> transactions;
+
+    // Transactions in progress by the thread running them, in the virtual-thread
+    // mode. An entry lives only as long as its transaction, so the map is bounded
+    // by the number of concurrent transactions rather than the number of threads
+    // ever seen, and no thread-local is needed.
+    private final ConcurrentMap<Thread, Transaction> activeTransactions;
+
+    // Owner and queue of waiting transactions for every resource, by slot.
+    // Each lock has its own guard, there is no lock shared by all resources.
+    private final ResourceLock[] locks;
+
+    // For a shard of a ShardedTM, the locks of all shards, this one's from
+    // slotBase on; otherwise the same as locks. Waiting transactions record
+    // their slot in this array, so deadlock detection can follow wait-for
+    // edges from one shard into another.
+    private final ResourceLock[] allLocks;
+    private final int slotBase;
+
+    // Transactions that are waiting right now, for the PERIODIC detector.
+    // Not maintained by the other strategies.
+    private final Set<Transaction> waiting;
 
-    // Keeps info wheather transaction is active/aborted/inactive.
-    private ConcurrentMap<Long, Integer> ActiveTransactions;
+    // To look resources up by id in constant time.
+    private final ResourceIndex resources;
 
-    // Semaphore for every Resource to know the next thread
-    // that is going to acquire this resource.
-    // Semaphore fairness is set to true.
-    private ConcurrentMap<ResourceId, Semaphore> onResource;
+    // Always on. The uncontended path only bumps a counter in the transaction.
+    private final TMMetrics metrics;
 
-    // Semaphore for every Resource to know the queue of threads
-    // that are going to acquire resource.
-    // Semaphore fairness is set to true.
-    private ConcurrentMap<ResourceId, Semaphore> wait;
+    // Null unless the manager was created with a durable log.
+    private final DurableLog log;
 
-    // Keeps info about already taken resources.
-    private ConcurrentMap<ResourceId, Long> takenResources;
+    // Null unless profiling has been started. Only read on the slow paths.
+    private volatile ContentionProfiler profiler = null;
 
-    // Transactions that are first to take resource when it will be released.
-    private ConcurrentMap<Long, ResourceId> waitingOnResource;
+    // Null unless tracing is on. Every traced site only reads it and tests for null.
+    private volatile TransactionTracer tracer = null;
 
-    // To store resources.
-    private ArrayList<Resource> resources;
+    // The tracer started last, kept after tracing stops so that it can still be dumped.
+    private volatile TransactionTracer lastTracer = null;
 
-    // To store operations that have already been done in a current transactions.
-    private ConcurrentMap<Long, List<Operation>> OperationLogs;
+    // Set before the first transaction that takes resources in arbitrary order
+    // starts waiting. Until then every waiter acquires in ResourceId order,
+    // no cycle can form and waiters skip deadlock detection. The flag is
+    // written before the waiter's edge is published and read after, so a
+    // waiter that still sees it clear cannot be closing a cycle: an edge of
+    // an arbitrary-order waiter is published after the flag, and that waiter
+    // runs the detection itself.
+    private volatile boolean unorderedWaits = false;
 
-    // To store threads that are being considered in isDeadLock method.
-    private Map<Long, Integer> threadsList;
+    // Cleared for shards, whose flags would not see unordered waiters in
+    // other shards, so that every waiter runs the detection.
+    private final boolean orderedWaitsSkipDetection;
+
+    // Whether an exclusive acquisition that finds the resource held spins
+    // for a while before it queues. Off by default on a single processor,
+    // where the holder cannot run while others spin, and in the
+    // virtual-thread mode, where spinning would hold up a carrier thread.
+    private volatile boolean spinning;
 
     public TM(Collection<Resource> resources,
               LocalTimeProvider timeProvider) {
+        this(resources, timeProvider, DeadlockDetection.EAGER, DEFAULT_DETECTION_INTERVAL_MILLIS);
+    }
+
+    // Managers with PERIODIC detection are only made by TransactionManagerFactory
+    // and ShardedTM, which start the detector once the manager is constructed.
+    TM(Collection<Resource> resources,
+       LocalTimeProvider timeProvider,
+       DeadlockDetection detection,
+       long detectionIntervalMillis) {
+        this(resources, timeProvider, detection, detectionIntervalMillis, false);
+    }
+
+    // With forVirtualThreads set, transaction state is not cached per thread
+    // but allocated at startTransaction and dropped at commit or rollback,
+    // which suits many short-lived threads, including those that do not
+    // allow thread-locals. Waiting never pins a carrier thread in either mode:
+    // it only parks, and guards are ReentrantLocks, not monitors.
+    TM(Collection<Resource> resources,
+       LocalTimeProvider timeProvider,
+       DeadlockDetection detection,
+       long detectionIntervalMillis,
+       boolean forVirtualThreads) {
+        this(resources, timeProvider, detection, detectionIntervalMillis, forVirtualThreads, null);
+    }
+
+    // With a log, every operation that is not read-only is logged, commits
+    // return once their commit record is on disk, and the resources are
+    // first brought up to date with what is already in the log.
+    TM(Collection<Resource> resources,
+       LocalTimeProvider timeProvider,
+       DeadlockDetection detection,
+       long detectionIntervalMillis,
+       boolean forVirtualThreads,
+       DurableLog log) {
+        this(resources, timeProvider, detection, detectionIntervalMillis, forVirtualThreads, log, null, 0);
+    }
+
+    // A shard of a ShardedTM, whose locks go into allLocks from slotBase on.
+    TM(Collection<Resource> resources,
+       LocalTimeProvider timeProvider,
+       DeadlockDetection detection,
+       long detectionIntervalMillis,
+       ResourceLock[] allLocks,
+       int slotBase) {
+        this(resources, timeProvider, detection, detectionIntervalMillis, false, null, allLocks, slotBase);
+    }
+
+    private TM(Collection<Resource> resources,
+               LocalTimeProvider timeProvider,
+               DeadlockDetection detection,
+               long detectionIntervalMillis,
+               boolean forVirtualThreads,
+               DurableLog log,
+               ResourceLock[] allLocks,
+               int slotBase) {
+        if (detectionIntervalMillis <= 0)
+            throw new IllegalArgumentException("Detection interval must be positive");
+
         this.timeProvider = timeProvider;
-        this.resources = new ArrayList<>(resources);
-        onResource = new ConcurrentHashMap<>();
-        wait = new ConcurrentHashMap<>();
-        for (Resource r : this.resources) {
-            onResource.computeIfAbsent(r.getId(), (k) -> new Semaphore(1, true));
-            wait.computeIfAbsent(r.getId(), (k) -> new Semaphore(1, true));
+        this.detection = detection;
+        this.detectionIntervalNanos = detectionIntervalMillis * 1_000_000;
+        this.resources = new ResourceIndex(resources);
+        this.metrics = new TMMetrics(this.resources.size());
+        this.log = log;
+        if (log != null) {
+            try {
+                log.recover(this.resources);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
-        waitingOnResource = new ConcurrentHashMap<>();
-        ActiveTransactions = new ConcurrentHashMap<>();
-        takenResources = new ConcurrentHashMap<>();
-        timer = new ConcurrentHashMap<>();
-        OperationLogs = new ConcurrentHashMap<>();
-        mutex = new Semaphore(1, true);
-        threadsList = new HashMap<>();
-        ThreadtoAbort = (long) 0;
+        locks = new ResourceLock[this.resources.size()];
+        for (int slot = 0; slot < locks.length; slot++)
+            locks[slot] = new ResourceLock();
+        if (allLocks != null) {
+            System.arraycopy(locks, 0, allLocks, slotBase, locks.length);
+            this.allLocks = allLocks;
+        } else {
+            this.allLocks = locks;
+        }
+        this.slotBase = slotBase;
+        this.orderedWaitsSkipDetection = allLocks == null;
+        this.spinning = !forVirtualThreads && Runtime.getRuntime().availableProcessors() > 1;
+        if (forVirtualThreads) {
+            transactions = null;
+            activeTransactions = new ConcurrentHashMap<>();
+        } else {
+            transactions = ThreadLocal.withInitial(() -> {
+                Transaction transaction = new Transaction(Thread.currentThread());
+                metrics.register(transaction.counters);
+                return transaction;
+            });
+            activeTransactions = null;
+        }
+        waiting = detection == DeadlockDetection.PERIODIC ? ConcurrentHashMap.newKeySet() : null;
+    }
+
+    // Starts the background thread of the PERIODIC strategy, if that is the
+    // strategy. Called once the manager is fully constructed, so that the
+    // thread never sees it half-initialized. Returns the manager.
+    TM startDetection() {
+        if (detection == DeadlockDetection.PERIODIC)
+            PeriodicDetector.start(this, detectionIntervalNanos / 1_000_000);
+        return this;
     }
 
-    private Resource getResource(ResourceId rid) {
-        for (Resource res : resources) {
-            if (rid == res.getId())
-                return res;
+    // Background thread of the PERIODIC strategy. It only keeps a weak
+    // reference to the manager and exits once the manager is gone.
+    private static final class PeriodicDetector implements Runnable {
+        private final WeakReference<TM> manager;
+        private final long intervalMillis;
+        private final WaitChain chain = new WaitChain();
+
+        private PeriodicDetector(TM manager, long intervalMillis) {
+            this.manager = new WeakReference<>(manager);
+            this.intervalMillis = intervalMillis;
+        }
+
+        static void start(TM manager, long intervalMillis) {
+            Thread thread = new Thread(new PeriodicDetector(manager, intervalMillis), "TM deadlock detector");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                TM tm = manager.get();
+                if (tm == null)
+                    return;
+
+                tm.detectDeadlocks(chain);
+                tm = null;
+            }
         }
-        return null;
     }
 
-    private void setThreadtoAbort(long currentThread) {
-        if (timer.get(currentThread) > timer.get(ThreadtoAbort)) {
-            ThreadtoAbort = currentThread;
+    // Checks every transaction that is waiting right now.
+    private void detectDeadlocks(WaitChain chain) {
+        for (Transaction transaction : waiting)
+            resolveDeadlock(transaction, chain);
+    }
 
-        } else if (timer.get(currentThread) == timer.get(ThreadtoAbort)
-                && currentThread > ThreadtoAbort) {
-            ThreadtoAbort = currentThread;
+    // Follows the wait-for edges starting at a given transaction without
+    // taking any lock. Only the new edge of the starting transaction can have
+    // closed a cycle, so only cycles through it are looked for. The walk is
+    // iterative and uses Brent's cycle finding, so it stops within a small
+    // multiple of the chain length even if it runs into a cycle that does not
+    // contain the start (that cycle is resolved by whoever closed it).
+    // A resource held in shared mode has several holders, and the walk turns
+    // into a search of the whole graph reachable from the start.
+    // Fills the chain with the slots and holders it goes through and returns
+    // true if the walk comes back to the start.
+    private boolean checkForCycle(Transaction start, WaitChain chain) {
+        chain.clear();
+        Transaction current = start;
+        Transaction mark = start;
+        int power = 1;
+        int steps = 0;
+        while (true) {
+            int slot = waitingPart(current).waitingOn;
+            if (slot == Transaction.NOT_WAITING)
+                return false;
+
+            current = allLocks[slot].owner;
+            if (current == null)
+                return false;
+
+            if (current == ResourceLock.SHARED)
+                return searchForCycle(start, chain);
+
+            chain.add(slot, current);
+            if (current.thread == start.thread)
+                return true;
+
+            if (current == mark)
+                return false;
+
+            if (++steps == power) {
+                mark = current;
+                power *= 2;
+                steps = 0;
+            }
         }
     }
 
-    private boolean checkForCycle(long currentThread) {
-        if (threadsList.get(currentThread) == ACTIVE)
-            return true;
+    // Depth-first search for a cycle through the start. Each transaction is
+    // expanded once, and the readers of a shared resource are copied under its
+    // guard, one guard at a time, so that a stable cycle is never missed because
+    // unrelated readers come and go during the search.
+    private boolean searchForCycle(Transaction start, WaitChain chain) {
+        chain.clear();
+        if (!pushHolders(start, chain))
+            return false;
+
+        while (chain.length() > 0) {
+            Transaction next = chain.advance();
+            if (next == null) {
+                chain.pop();
+                continue;
+            }
+            if (next.thread == start.thread)
+                return true;
+
+            if (chain.visit(next))
+                pushHolders(next, chain);
+        }
+        return false;
+    }
 
-        threadsList.computeIfAbsent(currentThread, k -> ACTIVE);
-        setThreadtoAbort(currentThread);
-        ResourceId resId = waitingOnResource.get(currentThread);
-        if (resId == null)
+    // Adds the resource a transaction waits for, and its holders, to a search.
+    private boolean pushHolders(Transaction transaction, WaitChain chain) {
+        Transaction waiter = waitingPart(transaction);
+        int slot = waiter.waitingOn;
+        if (slot == Transaction.NOT_WAITING)
             return false;
 
-        Long newThread = takenResources.get(resId);
-        return checkForCycle(newThread);
+        ResourceLock lock = allLocks[slot];
+        chain.push(slot);
+        Transaction owner = lock.owner;
+        if (owner == ResourceLock.SHARED) {
+            lock.guard.lock();
+            try {
+                chain.addReaders(lock, waiter);
+            } finally {
+                lock.guard.unlock();
+            }
+        } else if (owner != null && owner != waiter) {
+            chain.addCandidate(owner);
+        }
+        return true;
+    }
+
+    // Checks whether a candidate cycle still exists with the guards of all its
+    // resources held. Every edge of the cycle goes through one of these resources,
+    // so it cannot change while the check runs. The owners on the cycle are all
+    // blocked, so the unguarded fast paths cannot change it either.
+    // Returns the victim or null.
+    private Transaction validateCycle(Transaction start, WaitChain cycle) {
+        Transaction victim = null;
+        Transaction current = start;
+        for (int i = 0; i < cycle.length(); i++) {
+            int slot = cycle.get(i);
+            Transaction waiter = waitingPart(current);
+            if (waiter.waitingOn != slot)
+                return null;
+
+            if (victim == null || waiter.isBetterVictimThan(victim))
+                victim = waiter;
+
+            Transaction holder = cycle.holder(i);
+            if (holder == waiter || !allLocks[slot].holds(holder))
+                return null;
+
+            current = holder;
+        }
+        return current.thread == start.thread ? victim : null;
+    }
+
+    // The part of a transaction that takes part in the wait-for graph: the
+    // transaction itself, unless it is not waiting and is the part of a
+    // ShardedTM transaction in one shard, in which case it is the part in
+    // the shard where that transaction waits, if any. Waiting parts stay
+    // waiting while the guard of the awaited resource is held.
+    private static Transaction waitingPart(Transaction transaction) {
+        if (transaction.waitingOn != Transaction.NOT_WAITING || transaction.shards == null)
+            return transaction;
+
+        return transaction.shards.waitingPart(transaction);
     }
 
-    private boolean isDeadlock(long currentTransaction) {
-        threadsList.clear();
-        ThreadtoAbort = currentTransaction;
-        return checkForCycle(currentTransaction);
+    // Records an event of a transaction if tracing is on. Must run on its thread.
+    private void trace(Transaction transaction, TraceEvent event, int slot, long argument) {
+        TransactionTracer tracer = this.tracer;
+        if (tracer != null)
+            tracer.record(transaction.recorder, event, slot, argument);
+    }
+
+    // Appends a record of the current transaction to the durable log and
+    // returns the position past it. The argument is the resource's rank for
+    // APPLY records. Must run on the transaction's thread.
+    private long logRecord(Transaction transaction, byte type, int argument, ResourceOperation operation)
+            throws IOException {
+        if (transaction.logId == 0)
+            transaction.logId = log.newTransactionId();
+        if (transaction.logRecord == null)
+            transaction.logRecord = new LogRecordBuffer();
+        transaction.logRecord.build(type, transaction.logId, argument, operation, log.serializer());
+        return log.append(transaction.logRecord);
+    }
+
+    // Logs an applied operation, undoing it if that fails.
+    private void logApply(Transaction transaction, int slot, ResourceOperation operation) {
+        try {
+            logRecord(transaction, DurableLog.APPLY, resources.rankOf(slot), operation);
+            transaction.loggedOperations++;
+        } catch (IOException | RuntimeException e) {
+            resources.get(slot).unapply(operation);
+            throw e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+        }
+    }
+
+    // Must hold the guard of the resource the victim waits for.
+    // The detecting thread is the start's waiter, except for the PERIODIC detector.
+    private void abortVictim(Transaction start, Transaction victim) {
+        ResourceLock lock = allLocks[victim.waitingOn];
+        TransactionTracer tracer = this.tracer;
+        if (tracer != null) {
+            if (start.waiter == Thread.currentThread())
+                tracer.record(start.recorder, TraceEvent.DEADLOCK_ABORT, victim.waitingOn, victim.threadId);
+            else
+                tracer.recordDetector(TraceEvent.DEADLOCK_ABORT, victim.waitingOn, victim.threadId);
+        }
+        lock.remove(victim);
+        victim.waitingOn = Transaction.NOT_WAITING;
+        victim.abort();
+        metrics.victims.increment();
+        ContentionProfiler profiler = this.profiler;
+        if (profiler != null)
+            profiler.victim(victim);
+        handOff(lock);
+    }
+
+    // Looks for a cycle in the wait-for graph through a given waiting transaction
+    // and aborts the youngest transaction on it. With shared holders there may be
+    // several such cycles, so the search is repeated until none is left or the
+    // starting transaction itself is aborted.
+    private void resolveDeadlock(Transaction start, WaitChain cycle) {
+        long checkStart = System.nanoTime();
+        metrics.deadlockChecks.increment();
+        try {
+            findAndAbortVictims(start, cycle);
+        } finally {
+            metrics.deadlockCheckNanos.add(System.nanoTime() - checkStart);
+        }
+    }
+
+    private void findAndAbortVictims(Transaction start, WaitChain cycle) {
+        while (true) {
+            boolean found = checkForCycle(start, cycle);
+            ContentionProfiler profiler = this.profiler;
+            if (profiler != null)
+                profiler.chain(cycle);
+            if (!found)
+                return;
+
+            int[] order = cycle.sortedSlots();
+            int length = cycle.length();
+            for (int i = 0; i < length; i++)
+                allLocks[order[i]].guard.lock();
+            try {
+                Transaction victim = validateCycle(start, cycle);
+                if (victim != null) {
+                    abortVictim(start, victim);
+                    if (victim.thread == start.thread)
+                        return;
+                }
+            } finally {
+                for (int i = length - 1; i >= 0; i--)
+                    allLocks[order[i]].guard.unlock();
+            }
+        }
+    }
+
+    // Gives a resource to its first waiters if they can have it. Must hold the guard.
+    private void handOff(ResourceLock lock) {
+        Transaction next;
+        while ((next = lock.handOff()) != null) {
+            next.waitingOn = Transaction.NOT_WAITING;
+            next.grant();
+        }
+    }
+
+    // Takes a resource for the current transaction, waiting for it if needed.
+    // Ordered acquisitions are those of declared resource sets, made in ResourceId
+    // order by a transaction that holds nothing else. A shared acquisition is
+    // satisfied by any hold; an exclusive one by a reader upgrades the hold.
+    private void acquire(Transaction transaction, int slot, boolean ordered, boolean shared)
+            throws ActiveTransactionAborted, InterruptedException {
+        ResourceLock lock = locks[slot];
+        Transaction owner = lock.owner;
+        if (owner == transaction)
+            return;
+
+        if (!shared && owner == null && lock.tryAcquire(transaction)) {
+            transaction.held.add(slot);
+            transaction.recorder.counters.uncontendedAcquire();
+            trace(transaction, TraceEvent.ACQUIRE_GRANTED, slot, 0);
+            return;
+        }
+
+        if (!shared && owner != null && owner != ResourceLock.SHARED && spinning && spin(transaction, lock)) {
+            transaction.held.add(slot);
+            metrics.spinAcquires.increment();
+            trace(transaction, TraceEvent.ACQUIRE_GRANTED, slot, 0);
+            return;
+        }
+
+        boolean upgrade = false;
+        transaction.granted = false;
+        lock.guard.lock();
+        try {
+            if (owner == ResourceLock.SHARED || shared) {
+                if (lock.isReader(transaction)) {
+                    if (shared)
+                        return;
+                    if (lock.tryUpgrade(transaction)) {
+                        transaction.recorder.counters.uncontendedAcquire();
+                        trace(transaction, TraceEvent.ACQUIRE_GRANTED, slot, 0);
+                        return;
+                    }
+                    upgrade = true;
+                } else if (shared && lock.tryAcquireShared(transaction)) {
+                    transaction.held.add(slot);
+                    transaction.recorder.counters.uncontendedAcquire();
+                    trace(transaction, TraceEvent.ACQUIRE_GRANTED, slot, 0);
+                    return;
+                }
+            }
+
+            if (!ordered && !unorderedWaits)
+                unorderedWaits = true;
+
+            transaction.waitingShared = shared;
+            if (upgrade)
+                lock.enqueueUpgrade(transaction);
+            else
+                lock.enqueue(transaction);
+            transaction.waitingOn = slotBase + slot;
+            handOff(lock);
+        } finally {
+            lock.guard.unlock();
+        }
+
+        // Handed over by the hand-off above: nothing to wait for.
+        if (transaction.granted) {
+            if (!upgrade)
+                transaction.held.add(slot);
+            transaction.recorder.counters.uncontendedAcquire();
+            trace(transaction, TraceEvent.ACQUIRE_GRANTED, slot, 0);
+            return;
+        }
+
+        metrics.contendedAcquires.increment();
+        ContentionProfiler profiler = this.profiler;
+        if (profiler != null)
+            profiler.contended(slot);
+        trace(transaction, TraceEvent.ACQUIRE_WAIT, slot, 0);
+        long waitStart = System.nanoTime();
+        long waited;
+        boolean detect = !ordered || unorderedWaits || !orderedWaitsSkipDetection;
+        if (detect && waiting != null)
+            waiting.add(transaction);
+        try {
+            awaitGrant(transaction, lock, detect);
+        } finally {
+            if (detect && waiting != null)
+                waiting.remove(transaction);
+            waited = System.nanoTime() - waitStart;
+            metrics.recordWait(slot, waited);
+        }
+
+        if (transaction.state == Transaction.ABORTED) {
+            // Handed over as the abort came in: released with the rest.
+            if (transaction.granted && !upgrade)
+                transaction.held.add(slot);
+            throw new ActiveTransactionAborted();
+        }
+
+        trace(transaction, TraceEvent.ACQUIRE_GRANTED, slot, waited);
+
+        if (!upgrade)
+            transaction.held.add(slot);
+    }
+
+    // Spins for an exclusively held resource for about twice as long as
+    // spinners have been waiting for it lately, and takes it if it is freed
+    // in time. Returns false to queue instead: at once if the resource is
+    // usually held for longer than a park and unpark would take, or once a
+    // fair resource gets waiters, which spinners must not overtake.
+    private static boolean spin(Transaction transaction, ResourceLock lock) {
+        long budget = lock.spinBudget();
+        if (budget == 0)
+            return false;
+
+        long start = System.nanoTime();
+        long spun;
+        do {
+            Thread.onSpinWait();
+            if (lock.owner == null && lock.tryAcquire(transaction)) {
+                lock.recordSpin(System.nanoTime() - start);
+                return true;
+            }
+            if (lock.spinnerMustQueue() || transaction.state == Transaction.ABORTED)
+                return false;
+            spun = System.nanoTime() - start;
+        } while (spun < budget);
+
+        lock.recordSpin(2 * spun);
+        return false;
+    }
+
+    // Parks until the resource is handed over or the transaction is aborted.
+    private void awaitGrant(Transaction transaction, ResourceLock lock, boolean detect) throws InterruptedException {
+        if (!transaction.granted && detect && detection == DeadlockDetection.EAGER)
+            resolveDeadlock(transaction, transaction.waitChain);
+
+        long deadline = System.nanoTime() + detectionIntervalNanos;
+        while (!transaction.granted && transaction.state != Transaction.ABORTED) {
+            if (detect && detection == DeadlockDetection.TIMEOUT) {
+                LockSupport.parkNanos(lock, deadline - System.nanoTime());
+                if (!transaction.granted && transaction.state != Transaction.ABORTED
+                        && System.nanoTime() - deadline >= 0) {
+                    resolveDeadlock(transaction, transaction.waitChain);
+                    deadline = System.nanoTime() + detectionIntervalNanos;
+                }
+            } else {
+                LockSupport.park(lock);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                lock.guard.lock();
+                try {
+                    if (!transaction.granted && transaction.state != Transaction.ABORTED) {
+                        lock.remove(transaction);
+                        transaction.waitingOn = Transaction.NOT_WAITING;
+                        handOff(lock);
+                        throw new InterruptedException();
+                    }
+                } finally {
+                    lock.guard.unlock();
+                }
+            }
+        }
+
+        // The deadlock detector dequeues its victims, but a parent rolling
+        // back its sub-transactions aborts itself while one of them waits.
+        if (!transaction.granted && transaction.waitingOn != Transaction.NOT_WAITING) {
+            lock.guard.lock();
+            try {
+                if (!transaction.granted && transaction.waitingOn != Transaction.NOT_WAITING) {
+                    lock.remove(transaction);
+                    transaction.waitingOn = Transaction.NOT_WAITING;
+                    handOff(lock);
+                }
+            } finally {
+                lock.guard.unlock();
+            }
+        }
+    }
+
+    private void releaseResources(Transaction transaction) {
+        releaseResources(transaction, 0);
+    }
+
+    // Releases the resources acquired after the first n.
+    private void releaseResources(Transaction transaction, int n) {
+        HeldResources held = transaction.held;
+        for (int i = n; i < held.size(); i++) {
+            ResourceLock lock = locks[held.get(i)];
+            if (lock.owner != transaction) {
+                lock.guard.lock();
+                try {
+                    lock.releaseShared(transaction);
+                    handOff(lock);
+                } finally {
+                    lock.guard.unlock();
+                }
+            } else if (lock.release(transaction)) {
+                lock.guard.lock();
+                try {
+                    handOff(lock);
+                } finally {
+                    lock.guard.unlock();
+                }
+            }
+        }
+        held.truncate(n);
+    }
+
+    // Returns the transaction of the current thread, or null
+    // if there is none in the virtual-thread mode.
+    private Transaction currentTransaction() {
+        if (transactions != null)
+            return transactions.get();
+
+        return activeTransactions.get(Thread.currentThread());
+    }
+
+    // A parent's state belongs to its sub-transactions while any is active.
+    private static void checkNoSubTransactions(Transaction transaction) {
+        TransactionFamily family = transaction.family;
+        if (family != null && family.active.get() != 0)
+            throw new IllegalStateException("Sub-transactions are still active");
+    }
+
+    private void endTransaction(Transaction transaction) {
+        transaction.family = null;
+        if (TMMetrics.sampleDuration())
+            metrics.transactionDuration.record(timeProvider.getTime() - transaction.startTime);
+        transaction.state = Transaction.INACTIVE;
+        if (activeTransactions != null) {
+            activeTransactions.remove(transaction.thread);
+            metrics.retire(transaction.counters);
+        }
     }
 
     public void startTransaction() throws AnotherTransactionActiveException {
-        Long currentThreadId = Thread.currentThread().getId();
-        if (!ActiveTransactions.containsKey(currentThreadId)) {
-            ActiveTransactions.computeIfAbsent(currentThreadId, (k) -> ACTIVE);
-            timer.computeIfAbsent(currentThreadId, (k) -> timeProvider.getTime());
-        } else
+        startTransaction(0);
+    }
+
+    public void startTransaction(int priority) throws AnotherTransactionActiveException {
+        Transaction transaction = currentTransaction();
+        if (transaction == null) {
+            transaction = new Transaction(Thread.currentThread());
+            activeTransactions.put(transaction.thread, transaction);
+        } else if (transaction.state != Transaction.INACTIVE) {
             throw new AnotherTransactionActiveException();
+        }
+
+        transaction.generation++;
+        transaction.savepoints = 0;
+        transaction.startTime = timeProvider.getTime();
+        transaction.priority = priority;
+        transaction.state = Transaction.ACTIVE;
+        trace(transaction, TraceEvent.START, -1, transaction.startTime);
+    }
+
+    public void startTransaction(Collection<ResourceId> rids)
+            throws
+            AnotherTransactionActiveException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            InterruptedException {
+        startTransaction(rids, 0);
+    }
+
+    // For ShardedTM, whose parts start with the priority of the whole transaction.
+    void startTransaction(Collection<ResourceId> rids, int priority)
+            throws
+            AnotherTransactionActiveException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            InterruptedException {
+
+        Transaction transaction = currentTransaction();
+        if (transaction != null && transaction.state != Transaction.INACTIVE)
+            throw new AnotherTransactionActiveException();
+
+        int n = rids.size();
+        if (transaction != null && transaction.batchSlots.length < n) {
+            int capacity = Math.max(n, 2 * transaction.batchSlots.length);
+            transaction.batchSlots = new int[capacity];
+            transaction.batchOrder = new int[capacity];
+        }
+        int[] order = transaction != null ? transaction.batchOrder : new int[n];
+        int i = 0;
+        for (ResourceId rid : rids) {
+            int slot = resources.slotOf(rid);
+            if (slot < 0)
+                throw new UnknownResourceIdException(rid);
+            order[i++] = slot;
+        }
+
+        startTransaction(priority);
+        transaction = currentTransaction();
+
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+
+        resources.sortByResourceId(order, n);
+        for (i = 0; i < n; i++)
+            acquire(transaction, order[i], true, false);
     }
 
     public void operateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation)
@@ -135,53 +794,26 @@ public class TM implements TransactionManager {
             ResourceOperationException,
             InterruptedException {
 
-        Long currentThread = Thread.currentThread().getId();
-        if (!isTransactionActive())
+        Transaction transaction = currentTransaction();
+        if (transaction == null || transaction.state == Transaction.INACTIVE)
             throw new NoActiveTransactionException();
 
-        if (isTransactionAborted())
+        if (transaction.state == Transaction.ABORTED)
             throw new ActiveTransactionAborted();
 
-        Resource res = getResource(rid);
-        if (res == null)
+        if (transaction.family != null)
+            checkNoSubTransactions(transaction);
+
+        int slot = resources.slotOf(rid);
+        if (slot < 0)
             throw new UnknownResourceIdException(rid);
 
+        Resource res = resources.get(slot);
+
         if (Thread.currentThread().isInterrupted())
             throw new InterruptedException();
 
-        mutex.acquireUninterruptibly();
-        Long threadOnResource = takenResources.get(rid);
-        if (threadOnResource == null) {  // Resource is not taken.
-            takenResources.computeIfAbsent(rid, (k) -> currentThread);
-            mutex.release();
-            onResource.get(rid).acquireUninterruptibly();
-
-        } else if (threadOnResource != currentThread) { // Resource is already taken and this thread has to wait.
-            mutex.release();
-            wait.get(rid).acquireUninterruptibly();
-            mutex.acquireUninterruptibly();
-            waitingOnResource.computeIfAbsent(currentThread, (k) -> rid);
-            if (isDeadlock(currentThread)) {
-                ResourceId resToRelease = waitingOnResource.remove(ThreadtoAbort);
-                ActiveTransactions.computeIfPresent(ThreadtoAbort, (k, v) -> ABORTED);
-                wait.get(resToRelease).release();
-            }
-            mutex.release();
-            onResource.get(rid).acquireUninterruptibly();
-            if (ActiveTransactions.get(currentThread) == ABORTED) {
-                Thread.currentThread().interrupt();
-                onResource.get(rid).release();
-                throw new ActiveTransactionAborted();
-            }
-            mutex.acquireUninterruptibly();
-            waitingOnResource.remove(currentThread);
-            takenResources.computeIfAbsent(rid, k -> currentThread);
-            mutex.release();
-            wait.get(rid).release();
-
-        } else {
-            mutex.release();
-        }
+        acquire(transaction, slot, false, operation instanceof ReadOnlyOperation);
 
         if (Thread.currentThread().isInterrupted()) {
             throw new InterruptedException();
@@ -198,73 +830,627 @@ public class TM implements TransactionManager {
             throw new InterruptedException();
         }
 
-        OperationLogs.computeIfAbsent(currentThread, k -> new ArrayList<Operation>());
-        OperationLogs.get(currentThread).add(new Operation(rid, operation));
+        if (log != null && !(operation instanceof ReadOnlyOperation))
+            logApply(transaction, slot, operation);
+        transaction.undoLog.append(slot, operation);
+        trace(transaction, TraceEvent.APPLY, slot, 0);
+
+    }
+
+    public void operateOnResourcesInCurrentTransaction(List<BatchOperation> operations)
+            throws
+            NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException {
+
+        Transaction transaction = currentTransaction();
+        if (transaction == null || transaction.state == Transaction.INACTIVE)
+            throw new NoActiveTransactionException();
+
+        if (transaction.state == Transaction.ABORTED)
+            throw new ActiveTransactionAborted();
+
+        if (transaction.family != null)
+            checkNoSubTransactions(transaction);
+
+        int n = operations.size();
+        int[] slots = batchSlots(transaction, operations);
+
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+
+        acquireBatch(transaction, operations, slots);
+
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+
+        for (int i = 0; i < n; i++) {
+            ResourceOperation operation = operations.get(i).getResourceOperation();
+            Resource res = resources.get(slots[i]);
+            try {
+                res.apply(operation);
+            } catch (ResourceOperationException e) {
+                throw new ResourceOperationException(operations.get(i).getResourceId(), operation);
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                res.unapply(operation);
+                throw new InterruptedException();
+            }
+
+            if (log != null && !(operation instanceof ReadOnlyOperation))
+                logApply(transaction, slots[i], operation);
+            transaction.undoLog.append(slots[i], operation);
+            trace(transaction, TraceEvent.APPLY, slots[i], 0);
+        }
+    }
+
+    // Acquires the resources of a batch without applying it. ShardedTM has every
+    // shard acquire its part of a batch first and then applies it in list order.
+    void acquireBatch(List<BatchOperation> operations)
+            throws
+            NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            InterruptedException {
+
+        Transaction transaction = currentTransaction();
+        if (transaction == null || transaction.state == Transaction.INACTIVE)
+            throw new NoActiveTransactionException();
+
+        if (transaction.state == Transaction.ABORTED)
+            throw new ActiveTransactionAborted();
+
+        int[] slots = batchSlots(transaction, operations);
 
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+
+        acquireBatch(transaction, operations, slots);
+    }
+
+    // Looks up the slots of a batch, in list order, into the transaction's scratch space.
+    private int[] batchSlots(Transaction transaction, List<BatchOperation> operations)
+            throws UnknownResourceIdException {
+        int n = operations.size();
+        if (transaction.batchSlots.length < n) {
+            int capacity = Math.max(n, 2 * transaction.batchSlots.length);
+            transaction.batchSlots = new int[capacity];
+            transaction.batchOrder = new int[capacity];
+        }
+        int[] slots = transaction.batchSlots;
+        for (int i = 0; i < n; i++) {
+            ResourceId rid = operations.get(i).getResourceId();
+            slots[i] = resources.slotOf(rid);
+            if (slots[i] < 0)
+                throw new UnknownResourceIdException(rid);
+        }
+        return slots;
+    }
+
+    // Acquiring in id order means batches never wait for each other in a cycle.
+    // Each resource is taken once, in shared mode only if every operation on it
+    // is read-only: sorting by rank and then mode puts a write first if there is one.
+    private void acquireBatch(Transaction transaction, List<BatchOperation> operations, int[] slots)
+            throws ActiveTransactionAborted, InterruptedException {
+        int n = operations.size();
+        int[] order = transaction.batchOrder;
+        for (int i = 0; i < n; i++) {
+            boolean readOnly = operations.get(i).getResourceOperation() instanceof ReadOnlyOperation;
+            order[i] = 2 * resources.rankOf(slots[i]) + (readOnly ? 1 : 0);
+        }
+        Arrays.sort(order, 0, n);
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && order[i] >> 1 == order[i - 1] >> 1)
+                continue;
+            acquire(transaction, resources.slotAtRank(order[i] >> 1), false, (order[i] & 1) != 0);
+        }
     }
 
     public void commitCurrentTransaction()
             throws
             NoActiveTransactionException,
             ActiveTransactionAborted {
-        Long currentThread = Thread.currentThread().getId();
-        if (!isTransactionActive()) {
+        long commitPosition = commit();
+        if (commitPosition != 0)
+            log.awaitDurable(commitPosition);
+    }
+
+    public CompletableFuture<Void> commitCurrentTransactionAsync()
+            throws
+            NoActiveTransactionException,
+            ActiveTransactionAborted {
+        long commitPosition = commit();
+        if (commitPosition == 0)
+            return CompletableFuture.completedFuture(null);
+        return log.whenDurable(commitPosition);
+    }
+
+    // Ends the current transaction. Returns the log position the commit
+    // becomes durable at, or 0 if nothing has been logged.
+    private long commit() throws NoActiveTransactionException, ActiveTransactionAborted {
+        Transaction transaction = currentTransaction();
+        if (transaction == null || transaction.state == Transaction.INACTIVE) {
             throw new NoActiveTransactionException();
         }
 
-        if (isTransactionAborted()) {
+        if (transaction.state == Transaction.ABORTED) {
             throw new ActiveTransactionAborted();
         }
 
-        OperationLogs.remove(currentThread);
-        timer.remove(currentThread);
+        checkNoSubTransactions(transaction);
 
-        mutex.acquireUninterruptibly();
-        for (Resource res : resources) {
-            ResourceId rid = res.getId();
-            if (takenResources.get(rid) == currentThread) {
-                takenResources.remove(rid);
-                onResource.get(rid).release();
+        // Locks are released before the commit record is forced. A transaction
+        // that sees this one's writes logs its own commit later, so it cannot
+        // become durable without this one.
+        long commitPosition = 0;
+        if (transaction.logId != 0) {
+            try {
+                commitPosition = logRecord(transaction, DurableLog.COMMIT, -1, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+            transaction.logId = 0;
+            transaction.loggedOperations = 0;
         }
-        mutex.release();
-        ActiveTransactions.remove(currentThread);
+
+        transaction.undoLog.clear();
+        releaseResources(transaction);
+        transaction.counters.commit();
+        trace(transaction, TraceEvent.COMMIT, -1, 0);
+        endTransaction(transaction);
+        return commitPosition;
     }
 
     public void rollbackCurrentTransaction() {
-        Long currentThread = Thread.currentThread().getId();
-        if (OperationLogs.get(currentThread) != null) {
-            ArrayList<Operation> operations = new ArrayList<>(OperationLogs.remove(currentThread));
-            Collections.reverse(operations);
-            for (Operation o : operations) {
-                getResource(o.getResourceId()).unapply(o.getResourceOperation());
+        Transaction transaction = currentTransaction();
+        if (transaction == null)
+            return;
+
+        boolean aborted = transaction.state == Transaction.ABORTED;
+        rollbackSubTransactions(transaction);
+
+        TransactionTracer tracer = this.tracer;
+        if (tracer != null) {
+            UndoLog undoLog = transaction.undoLog;
+            for (int i = undoLog.size() - 1; i >= 0; i--)
+                tracer.record(transaction, TraceEvent.UNDO, undoLog.slot(i), 0);
+        }
+        transaction.undoLog.undo(resources);
+        // Resources are released even if the log fails.
+        UncheckedIOException logFailure = null;
+        if (transaction.logId != 0) {
+            try {
+                logRecord(transaction, DurableLog.ROLLBACK, -1, null);
+            } catch (IOException e) {
+                logFailure = new UncheckedIOException(e);
             }
+            transaction.logId = 0;
+            transaction.loggedOperations = 0;
+        }
+        releaseResources(transaction);
+        if (transaction.state != Transaction.INACTIVE) {
+            transaction.counters.rollback(aborted);
+            if (tracer != null)
+                tracer.record(transaction, TraceEvent.ROLLBACK, -1, aborted ? 1 : 0);
+            endTransaction(transaction);
         }
-        timer.remove(currentThread);
-        mutex.acquireUninterruptibly();
-        for (Resource res : resources) {
-            ResourceId rid = res.getId();
-            if (takenResources.get(rid) == currentThread) {
-                takenResources.remove(rid);
-                onResource.get(rid).release();
+        if (logFailure != null)
+            throw logFailure;
+
+    }
+
+    public Savepoint createSavepoint() throws NoActiveTransactionException, ActiveTransactionAborted {
+        Transaction transaction = currentTransaction();
+        if (transaction == null || transaction.state == Transaction.INACTIVE)
+            throw new NoActiveTransactionException();
+
+        if (transaction.state == Transaction.ABORTED)
+            throw new ActiveTransactionAborted();
+
+        checkNoSubTransactions(transaction);
+
+        return new TransactionSavepoint(transaction, transaction.savepoints++, transaction.undoLog.size(),
+                transaction.held.size(), transaction.loggedOperations);
+    }
+
+    // Resources acquired since the savepoint are only touched by operations
+    // since the savepoint, so they can go once those are undone. Resources
+    // upgraded from shared to exclusive since then stay exclusive.
+    public void rollbackToSavepoint(Savepoint savepoint, boolean releaseResources)
+            throws
+            NoActiveTransactionException,
+            ActiveTransactionAborted {
+        Transaction transaction = currentTransaction();
+        if (transaction == null || transaction.state == Transaction.INACTIVE)
+            throw new NoActiveTransactionException();
+
+        if (transaction.state == Transaction.ABORTED)
+            throw new ActiveTransactionAborted();
+
+        if (!(savepoint instanceof TransactionSavepoint) || !((TransactionSavepoint) savepoint).isLiveIn(transaction))
+            throw new IllegalArgumentException("Savepoint is not valid in the current transaction");
+
+        checkNoSubTransactions(transaction);
+
+        TransactionSavepoint target = (TransactionSavepoint) savepoint;
+        TransactionTracer tracer = this.tracer;
+        if (tracer != null) {
+            UndoLog undoLog = transaction.undoLog;
+            for (int i = undoLog.size() - 1; i >= target.undoSize; i--)
+                tracer.record(transaction, TraceEvent.UNDO, undoLog.slot(i), 0);
+        }
+        transaction.undoLog.undoTo(resources, target.undoSize);
+        if (transaction.loggedOperations > target.loggedOperations) {
+            try {
+                logRecord(transaction, DurableLog.ROLLBACK_TO_SAVEPOINT, target.loggedOperations, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+            transaction.loggedOperations = target.loggedOperations;
         }
-        mutex.release();
-        ActiveTransactions.remove(currentThread);
+        if (releaseResources)
+            releaseResources(transaction, target.heldSize);
+        transaction.savepoints = target.index + 1;
+    }
+
+    // A sub-transaction's operations are written to the durable log as the
+    // parent's when it commits, and never if it rolls back, so that the log
+    // holds no operations to undo from the middle of the parent's.
+    public SubTransaction startSubTransaction() throws NoActiveTransactionException, ActiveTransactionAborted {
+        Transaction transaction = currentTransaction();
+        if (transaction == null || transaction.state == Transaction.INACTIVE)
+            throw new NoActiveTransactionException();
+
+        if (transaction.state == Transaction.ABORTED)
+            throw new ActiveTransactionAborted();
 
+        if (transaction.family == null)
+            transaction.family = new TransactionFamily();
+        Child child = new Child(transaction, transaction.family);
+        transaction.family.active.incrementAndGet();
+        transaction.family.children.add(child);
+        return child;
     }
 
-    public boolean isTransactionActive() {
-        if (ActiveTransactions.get(Thread.currentThread().getId()) == ACTIVE)
-            return true;
+    // Rolls back the parent's active sub-transactions. Aborting the parent
+    // wakes a child waiting for a resource; a child inside an operation is
+    // rolled back once the operation returns.
+    private static void rollbackSubTransactions(Transaction transaction) {
+        TransactionFamily family = transaction.family;
+        if (family == null || family.active.get() == 0)
+            return;
 
-        return false;
+        transaction.abort();
+        for (SubTransaction child : family.children)
+            ((Child) child).rollbackByParent();
     }
 
-    public boolean isTransactionAborted() {
-        if (ActiveTransactions.get(Thread.currentThread().getId()) == ABORTED)
-            return true;
+    // A sub-transaction. Its resources are held by the parent, so in the
+    // wait-for graph the family is the single node of the parent: a child
+    // waits with the parent's waiting state, one child at a time, and a
+    // deadlock aborts the parent and with it every child. Calls on one
+    // sub-transaction are serialized by its lock, which the parent takes
+    // too to roll it back. Lock order: child, then the family's locks.
+    private final class Child implements SubTransaction {
+        private final Transaction parent;
+        private final TransactionFamily family;
 
-        return false;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final UndoLog undoLog = new UndoLog();
+        private final HeldResources claimed = new HeldResources();
+
+        // Records the acquisitions in the virtual-thread mode, created on the first.
+        private Transaction recorder = null;
+
+        private volatile int state = Transaction.ACTIVE;
+        // Whether the parent's rollback ended it.
+        private volatile boolean rolledBackByParent = false;
+
+        Child(Transaction parent, TransactionFamily family) {
+            this.parent = parent;
+            this.family = family;
+        }
+
+        private void checkActive() throws ActiveTransactionAborted {
+            if (state == Transaction.INACTIVE) {
+                if (rolledBackByParent)
+                    throw new ActiveTransactionAborted();
+                throw new IllegalStateException("Sub-transaction has ended");
+            }
+
+            if (state == Transaction.ACTIVE && parent.state == Transaction.ABORTED)
+                state = Transaction.ABORTED;
+            if (state == Transaction.ABORTED)
+                throw new ActiveTransactionAborted();
+        }
+
+        private ActiveTransactionAborted abort() {
+            state = Transaction.ABORTED;
+            return new ActiveTransactionAborted();
+        }
+
+        @Override
+        public void operateOnResource(ResourceId rid, ResourceOperation operation)
+                throws
+                UnknownResourceIdException,
+                ActiveTransactionAborted,
+                ResourceOperationException,
+                InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                operate(rid, operation);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void operate(ResourceId rid, ResourceOperation operation)
+                throws
+                UnknownResourceIdException,
+                ActiveTransactionAborted,
+                ResourceOperationException,
+                InterruptedException {
+            checkActive();
+
+            int slot = resources.slotOf(rid);
+            if (slot < 0)
+                throw new UnknownResourceIdException(rid);
+
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedException();
+
+            Object claimant = family.claims.putIfAbsent(slot, this);
+            if (claimant == null)
+                claimed.add(slot);
+            else if (claimant != this)
+                throw abort();
+
+            if (locks[slot].owner != parent) {
+                family.acquireLock.lockInterruptibly();
+                try {
+                    if (parent.state == Transaction.ABORTED)
+                        throw abort();
+                    parent.waiter = Thread.currentThread();
+                    parent.recorder = recorder();
+                    acquire(parent, slot, false, operation instanceof ReadOnlyOperation);
+                } catch (ActiveTransactionAborted e) {
+                    throw abort();
+                } finally {
+                    parent.waiter = parent.thread;
+                    parent.recorder = parent;
+                    family.acquireLock.unlock();
+                }
+            }
+
+            Resource res = resources.get(slot);
+            try {
+                res.apply(operation);
+            } catch (ResourceOperationException e) {
+                throw new ResourceOperationException(rid, operation);
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                res.unapply(operation);
+                throw new InterruptedException();
+            }
+
+            undoLog.append(slot, operation);
+        }
+
+        // The state of the current thread in the thread mode, which only that
+        // thread writes. The virtual-thread mode keeps no per-thread state, so
+        // there the sub-transaction has its own, folded into the totals when
+        // it ends; its calls are serialized, so it has one writer at a time.
+        private Transaction recorder() {
+            if (transactions != null)
+                return transactions.get();
+
+            if (recorder == null)
+                recorder = new Transaction(Thread.currentThread());
+            return recorder;
+        }
+
+        @Override
+        public void commit() throws ActiveTransactionAborted {
+            lock.lock();
+            try {
+                checkActive();
+
+                family.parentLock.lock();
+                try {
+                    if (log != null)
+                        logOperations();
+                    parent.undoLog.moveFrom(undoLog);
+                } finally {
+                    family.parentLock.unlock();
+                }
+                end();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Logs the operations as the parent's, oldest first. Must hold the
+        // family's parentLock. If the log fails, the sub-transaction is
+        // undone and ended, and the parent aborted, so that the records
+        // already written never belong to a committed transaction.
+        private void logOperations() {
+            try {
+                for (int i = 0; i < undoLog.size(); i++) {
+                    ResourceOperation operation = undoLog.operation(i);
+                    if (!(operation instanceof ReadOnlyOperation)) {
+                        logRecord(parent, DurableLog.APPLY, resources.rankOf(undoLog.slot(i)), operation);
+                        parent.loggedOperations++;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                undoLog.undo(resources);
+                end();
+                parent.abort();
+                throw e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+            }
+        }
+
+        @Override
+        public void rollback() {
+            lock.lock();
+            try {
+                if (state == Transaction.INACTIVE)
+                    return;
+
+                undoLog.undo(resources);
+                end();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Rolls back for the parent's rollback, from the parent's thread.
+        void rollbackByParent() {
+            lock.lock();
+            try {
+                if (state == Transaction.INACTIVE)
+                    return;
+
+                rolledBackByParent = true;
+                undoLog.undo(resources);
+                end();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isAborted() {
+            int state = this.state;
+            return state == Transaction.ABORTED || rolledBackByParent
+                    || (state == Transaction.ACTIVE && parent.state == Transaction.ABORTED);
+        }
+
+        private void end() {
+            for (int i = 0; i < claimed.size(); i++)
+                family.claims.remove(claimed.get(i), this);
+            claimed.clear();
+            if (recorder != null)
+                metrics.retire(recorder.counters);
+            state = Transaction.INACTIVE;
+            family.children.remove(this);
+            family.active.decrementAndGet();
+        }
+    }
+
+    // Whether a resource is one of this manager's.
+    boolean manages(ResourceId rid) {
+        return resources.slotOf(rid) >= 0;
+    }
+
+    // Returns the state object of the current thread, creating it if needed,
+    // for ShardedTM to link the parts of a transaction. Not for the
+    // virtual-thread mode.
+    Transaction ownTransaction() {
+        return transactions.get();
+    }
+
+    // Makes a resource fair, the default, or unfair. A fair resource is
+    // granted in queue order. An unfair one goes to whoever finds it free
+    // first, even while others wait, which saves hand-offs to parked
+    // waiters under short holds but may starve a waiter.
+    public void setFair(ResourceId rid, boolean fair) throws UnknownResourceIdException {
+        int slot = resources.slotOf(rid);
+        if (slot < 0)
+            throw new UnknownResourceIdException(rid);
+        locks[slot].fair = fair;
+    }
+
+    // Sets the order in which the waiters of a resource get it. Waiters
+    // that are already queued keep their places.
+    public void setWaitPolicy(ResourceId rid, WaitPolicy policy) throws UnknownResourceIdException {
+        int slot = resources.slotOf(rid);
+        if (slot < 0)
+            throw new UnknownResourceIdException(rid);
+        locks[slot].policy = policy;
+    }
+
+    // Sets the wait policy of every resource.
+    public void setWaitPolicy(WaitPolicy policy) {
+        for (ResourceLock lock : locks)
+            lock.policy = policy;
+    }
+
+    // Turns spinning before queueing for a held resource on or off.
+    public void setSpinning(boolean spinning) {
+        this.spinning = spinning;
+    }
+
+    // Returns a copy of the manager's counters.
+    public TMMetricsSnapshot getMetrics() {
+        return metrics.snapshot(resources);
+    }
+
+    // Registers the manager's counters with the platform MBean server under
+    // cp1.solution:type=TM,name=<name>. They stay registered, and reachable,
+    // until unregistered through the returned name.
+    public ObjectName registerMXBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("cp1.solution:type=TM,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        return objectName;
+    }
+
+    // Starts tracking the topK most contended resources, deadlock victims and
+    // longest wait chains, sampling one in samplingInterval contended
+    // acquisitions. Replaces the profiler that is running, if any.
+    public void startProfiling(int topK, int samplingInterval) {
+        profiler = new ContentionProfiler(topK, samplingInterval);
+    }
+
+    public void stopProfiling() {
+        profiler = null;
+    }
+
+    // Returns what the running profiler has seen or null if profiling is off.
+    public ContentionReport getContentionReport() {
+        ContentionProfiler profiler = this.profiler;
+        return profiler == null ? null : profiler.report(resources);
+    }
+
+    // Number of times the durable log has been forced to disk,
+    // or -1 if the manager has no log.
+    public long getLogForces() {
+        return log == null ? -1 : log.forces();
+    }
+
+    // Starts recording the transaction events of every thread into a ring
+    // buffer per thread that keeps its latest eventsPerThread events, rounded
+    // up to a power of two. Replaces the trace being recorded, if any.
+    public void startTracing(int eventsPerThread) {
+        TransactionTracer tracer = new TransactionTracer(eventsPerThread);
+        lastTracer = tracer;
+        this.tracer = tracer;
+    }
+
+    public void stopTracing() {
+        tracer = null;
+    }
+
+    // Writes the events of the trace started last, in the binary format
+    // described in TransactionTracer. Tracing may still be on.
+    public void dumpTrace(OutputStream out) throws IOException {
+        TransactionTracer tracer = lastTracer;
+        if (tracer == null)
+            throw new IllegalStateException("Tracing has never been started");
+        tracer.dump(out, resources);
+    }
+
+    public boolean isTransactionActive() {
+        Transaction transaction = currentTransaction();
+        return transaction != null && transaction.state != Transaction.INACTIVE;
+    }
+
+    public boolean isTransactionAborted() {
+        Transaction transaction = currentTransaction();
+        return transaction != null && transaction.state == Transaction.ABORTED;
     }
-}
\ No newline at end of file
+}
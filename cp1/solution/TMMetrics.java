@@ -0,0 +1,177 @@
+package cp1.solution;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import cp1.base.ResourceId;
+
+// Counters and histograms of one transaction manager, all lock-free.
+// Events of the uncontended path are counted per thread in TransactionCounters
+// and summed here on demand; events of the slow paths, which already park or
+// search the wait-for graph, go straight to striped adders and per-resource
+// atomic arrays. Transaction durations need a second LocalTimeProvider call,
+// so only a random sample of transactions is timed.
+final class TMMetrics implements TMMetricsMXBean {
+    // One in this many transactions has its duration recorded.
+    static final int DURATION_SAMPLING = 8;
+
+    // The live list is never pruned while it is shorter than this.
+    private static final int MIN_PRUNE_SIZE = 64;
+
+    // Counters of the threads that may still run transactions.
+    private final Queue<TransactionCounters> live = new ConcurrentLinkedQueue<>();
+
+    // Length of the live list, and the length at which a registration prunes
+    // it next: twice what was left after the last pruning, so that pruning
+    // costs a constant per registration however many threads come and go.
+    private final AtomicInteger liveCount = new AtomicInteger();
+    private volatile int pruneAt = MIN_PRUNE_SIZE;
+
+    // Totals of the counters of terminated threads and discarded transactions.
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    private final LongAdder uncontendedAcquires = new LongAdder();
+
+    final LongAdder contendedAcquires = new LongAdder();
+    final LongAdder spinAcquires = new LongAdder();
+    final LongAdder waitNanos = new LongAdder();
+    final LongAdder deadlockChecks = new LongAdder();
+    final LongAdder deadlockCheckNanos = new LongAdder();
+    final LongAdder victims = new LongAdder();
+
+    final Log2Histogram waitHistogram = new Log2Histogram();
+    final Log2Histogram transactionDuration = new Log2Histogram();
+
+    // Total wait time and number of contended acquisitions, by slot.
+    private final AtomicLongArray waitNanosBySlot;
+    private final AtomicLongArray waitsBySlot;
+
+    TMMetrics(int resources) {
+        waitNanosBySlot = new AtomicLongArray(resources);
+        waitsBySlot = new AtomicLongArray(resources);
+    }
+
+    // Starts summing the counters of a thread's transactions.
+    void register(TransactionCounters counters) {
+        live.add(counters);
+        if (liveCount.incrementAndGet() >= pruneAt) {
+            retireTerminated();
+            pruneAt = Math.max(MIN_PRUNE_SIZE, 2 * liveCount.get());
+        }
+    }
+
+    // Adds the counters of a transaction that is about to be dropped.
+    void retire(TransactionCounters counters) {
+        commits.add(counters.commits());
+        rollbacks.add(counters.rollbacks());
+        aborts.add(counters.aborts());
+        uncontendedAcquires.add(counters.uncontendedAcquires());
+    }
+
+    static boolean sampleDuration() {
+        return ThreadLocalRandom.current().nextInt(DURATION_SAMPLING) == 0;
+    }
+
+    void recordWait(int slot, long nanos) {
+        waitNanos.add(nanos);
+        waitHistogram.record(nanos);
+        waitNanosBySlot.getAndAdd(slot, nanos);
+        waitsBySlot.getAndIncrement(slot);
+    }
+
+    // Folds the counters of terminated threads into the totals and drops
+    // them, with their threads, so that the live list does not grow with
+    // every thread ever seen. Runs on registrations and on reads.
+    private void retireTerminated() {
+        for (TransactionCounters counters : live) {
+            if (!counters.thread.isAlive() && live.remove(counters)) {
+                liveCount.decrementAndGet();
+                retire(counters);
+            }
+        }
+    }
+
+    TMMetricsSnapshot snapshot(ResourceIndex resources) {
+        Map<ResourceId, Long> waitNanosByResource = new LinkedHashMap<>();
+        Map<ResourceId, Long> waitsByResource = new LinkedHashMap<>();
+        for (int slot = 0; slot < resources.size(); slot++) {
+            long waits = waitsBySlot.get(slot);
+            if (waits != 0) {
+                waitsByResource.put(resources.get(slot).getId(), waits);
+                waitNanosByResource.put(resources.get(slot).getId(), waitNanosBySlot.get(slot));
+            }
+        }
+        return new TMMetricsSnapshot(this, waitNanosByResource, waitsByResource);
+    }
+
+    public long getCommits() {
+        retireTerminated();
+        long sum = commits.sum();
+        for (TransactionCounters counters : live)
+            sum += counters.commits();
+        return sum;
+    }
+
+    public long getRollbacks() {
+        retireTerminated();
+        long sum = rollbacks.sum();
+        for (TransactionCounters counters : live)
+            sum += counters.rollbacks();
+        return sum;
+    }
+
+    public long getAborts() {
+        retireTerminated();
+        long sum = aborts.sum();
+        for (TransactionCounters counters : live)
+            sum += counters.aborts();
+        return sum;
+    }
+
+    public long getUncontendedAcquires() {
+        retireTerminated();
+        long sum = uncontendedAcquires.sum();
+        for (TransactionCounters counters : live)
+            sum += counters.uncontendedAcquires();
+        return sum;
+    }
+
+    public long getContendedAcquires() {
+        return contendedAcquires.sum();
+    }
+
+    public long getSpinAcquires() {
+        return spinAcquires.sum();
+    }
+
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    public long[] getWaitHistogram() {
+        return waitHistogram.counts();
+    }
+
+    public long getDeadlockChecks() {
+        return deadlockChecks.sum();
+    }
+
+    public long getDeadlockCheckNanos() {
+        return deadlockCheckNanos.sum();
+    }
+
+    public long getVictims() {
+        return victims.sum();
+    }
+
+    public long[] getTransactionDurationHistogram() {
+        return transactionDuration.counts();
+    }
+}
@@ -0,0 +1,48 @@
+package cp1.solution;
+
+/**
+ * Management interface of the counters kept by a
+ * transaction manager, as registered by
+ * TM.registerMXBean. Histograms are arrays of 64
+ * buckets: bucket 0 counts values of 0 and below,
+ * bucket i counts values in [2^(i-1), 2^i).
+ */
+public interface TMMetricsMXBean {
+
+    public long getCommits();
+
+    public long getRollbacks();
+
+    /** Rollbacks of transactions that had been aborted. */
+    public long getAborts();
+
+    /** Acquisitions that did not have to wait. */
+    public long getUncontendedAcquires();
+
+    /** Acquisitions that had to wait in the queue for the resource. */
+    public long getContendedAcquires();
+
+    /** Acquisitions that found the resource held and got it by spinning, without queueing. */
+    public long getSpinAcquires();
+
+    public long getWaitNanos();
+
+    /** Time spent queued per contended acquisition, in nanoseconds. */
+    public long[] getWaitHistogram();
+
+    /** Searches of the wait-for graph for a cycle. */
+    public long getDeadlockChecks();
+
+    /** Time spent in deadlock checks, in nanoseconds. */
+    public long getDeadlockCheckNanos();
+
+    /** Transactions chosen as deadlock victims. */
+    public long getVictims();
+
+    /**
+     * Duration of a random sample of one in eight committed and
+     * rolled back transactions, in LocalTimeProvider units.
+     */
+    public long[] getTransactionDurationHistogram();
+
+}
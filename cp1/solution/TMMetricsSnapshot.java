@@ -0,0 +1,131 @@
+package cp1.solution;
+
+import java.util.Collections;
+import java.util.Map;
+
+import cp1.base.ResourceId;
+
+/**
+ * A copy of the counters of a transaction manager
+ * taken at one moment, as returned by TM.getMetrics.
+ * Counters are read one by one without stopping the
+ * manager, so they may be off by the events that
+ * happened while the copy was being made.
+ */
+public final class TMMetricsSnapshot {
+
+    private final long commits;
+    private final long rollbacks;
+    private final long aborts;
+    private final long uncontendedAcquires;
+    private final long contendedAcquires;
+    private final long spinAcquires;
+    private final long waitNanos;
+    private final long[] waitHistogram;
+    private final long deadlockChecks;
+    private final long deadlockCheckNanos;
+    private final long victims;
+    private final long[] transactionDurationHistogram;
+    private final Map<ResourceId, Long> waitNanosByResource;
+    private final Map<ResourceId, Long> waitsByResource;
+
+    TMMetricsSnapshot(
+            TMMetricsMXBean metrics,
+            Map<ResourceId, Long> waitNanosByResource,
+            Map<ResourceId, Long> waitsByResource
+    ) {
+        this.commits = metrics.getCommits();
+        this.rollbacks = metrics.getRollbacks();
+        this.aborts = metrics.getAborts();
+        this.uncontendedAcquires = metrics.getUncontendedAcquires();
+        this.contendedAcquires = metrics.getContendedAcquires();
+        this.spinAcquires = metrics.getSpinAcquires();
+        this.waitNanos = metrics.getWaitNanos();
+        this.waitHistogram = metrics.getWaitHistogram();
+        this.deadlockChecks = metrics.getDeadlockChecks();
+        this.deadlockCheckNanos = metrics.getDeadlockCheckNanos();
+        this.victims = metrics.getVictims();
+        this.transactionDurationHistogram = metrics.getTransactionDurationHistogram();
+        this.waitNanosByResource = Collections.unmodifiableMap(waitNanosByResource);
+        this.waitsByResource = Collections.unmodifiableMap(waitsByResource);
+    }
+
+    public long getCommits() {
+        return this.commits;
+    }
+
+    public long getRollbacks() {
+        return this.rollbacks;
+    }
+
+    public long getAborts() {
+        return this.aborts;
+    }
+
+    public long getUncontendedAcquires() {
+        return this.uncontendedAcquires;
+    }
+
+    public long getContendedAcquires() {
+        return this.contendedAcquires;
+    }
+
+    public long getSpinAcquires() {
+        return this.spinAcquires;
+    }
+
+    public long getWaitNanos() {
+        return this.waitNanos;
+    }
+
+    public long[] getWaitHistogram() {
+        return this.waitHistogram.clone();
+    }
+
+    public long getDeadlockChecks() {
+        return this.deadlockChecks;
+    }
+
+    public long getDeadlockCheckNanos() {
+        return this.deadlockCheckNanos;
+    }
+
+    public long getVictims() {
+        return this.victims;
+    }
+
+    public long[] getTransactionDurationHistogram() {
+        return this.transactionDurationHistogram.clone();
+    }
+
+    /**
+     * Total time spent queued for each resource
+     * that has ever been waited for, in nanoseconds.
+     */
+    public Map<ResourceId, Long> getWaitNanosByResource() {
+        return this.waitNanosByResource;
+    }
+
+    /**
+     * Number of contended acquisitions of each
+     * resource that has ever been waited for.
+     */
+    public Map<ResourceId, Long> getWaitsByResource() {
+        return this.waitsByResource;
+    }
+
+    @Override
+    public String toString() {
+        return "commits=" + this.commits +
+                " rollbacks=" + this.rollbacks +
+                " aborts=" + this.aborts +
+                " uncontendedAcquires=" + this.uncontendedAcquires +
+                " contendedAcquires=" + this.contendedAcquires +
+                " spinAcquires=" + this.spinAcquires +
+                " waitNanos=" + this.waitNanos +
+                " deadlockChecks=" + this.deadlockChecks +
+                " deadlockCheckNanos=" + this.deadlockCheckNanos +
+                " victims=" + this.victims;
+    }
+
+}
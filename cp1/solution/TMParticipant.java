@@ -0,0 +1,254 @@
+package cp1.solution;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.AnotherTransactionActiveException;
+import cp1.base.LocalTimeProvider;
+import cp1.base.Participant;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.TransactionManager;
+
+// Participant backed by a transaction manager. A manager's transactions
+// belong to threads, so every branch gets a virtual thread of its own,
+// which takes the branch's messages from a queue and runs them in order.
+// The participant makes its manager itself, in the virtual-thread mode,
+// which keeps no state for a thread once its transaction has ended.
+// An abort interrupts the thread in case it is waiting for a resource,
+// and the operations queued before the abort fail at once.
+//
+// A prepared branch holds its resources until the coordinator decides.
+// Prepared state is only kept in memory: if the participant's process
+// dies, its manager loses the branch like any other transaction.
+public class TMParticipant implements Participant {
+    private final TransactionManager tm;
+
+    private final ConcurrentMap<Long, Branch> branches = new ConcurrentHashMap<>();
+
+    public TMParticipant(Collection<Resource> resources, LocalTimeProvider timeProvider) {
+        this(resources, timeProvider, DeadlockDetection.EAGER, TM.DEFAULT_DETECTION_INTERVAL_MILLIS);
+    }
+
+    public TMParticipant(Collection<Resource> resources,
+                         LocalTimeProvider timeProvider,
+                         DeadlockDetection detection,
+                         long detectionIntervalMillis) {
+        this.tm = TransactionManagerFactory.newVirtualThreadTM(resources, timeProvider, detection,
+                detectionIntervalMillis);
+    }
+
+    // The participant's manager, on which local transactions may run as well.
+    public TransactionManager getTransactionManager() {
+        return tm;
+    }
+
+    private final class Branch implements Runnable {
+        private final long id;
+        private final BlockingQueue<Runnable> mailbox = new LinkedBlockingQueue<>();
+        private final Thread thread;
+
+        // Set by abort before the thread is interrupted.
+        private volatile boolean aborting = false;
+
+        // Set on the branch's thread once it has voted to commit.
+        private volatile boolean prepared = false;
+
+        // Set on the branch's thread when the transaction has ended. Messages
+        // that arrive later only get a reply, on whichever thread finds them.
+        private volatile boolean ended = false;
+        private volatile boolean committed = false;
+
+        // Set once the thread has stopped taking messages.
+        private volatile boolean finished = false;
+
+        Branch(long id) {
+            this.id = id;
+            this.thread = Thread.ofVirtual().name("branch " + id).unstarted(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                tm.startTransaction();
+                while (!ended) {
+                    Runnable message;
+                    try {
+                        message = mailbox.take();
+                    } catch (InterruptedException e) {
+                        continue;
+                    }
+                    // An interrupt meant for an earlier message. An abort
+                    // sets the flag before it interrupts, so it is not lost.
+                    Thread.interrupted();
+                    message.run();
+                }
+            } catch (AnotherTransactionActiveException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                branches.remove(id, this);
+                finished = true;
+                answerLeftovers();
+            }
+        }
+
+        // Queues a message. One that comes too late for the thread is
+        // answered here: either the thread sees it after setting finished,
+        // or the sender sees finished after queueing it.
+        void send(Runnable message) {
+            mailbox.add(message);
+            if (finished)
+                answerLeftovers();
+        }
+
+        private void answerLeftovers() {
+            Runnable message;
+            while ((message = mailbox.poll()) != null)
+                message.run();
+        }
+
+        void operate(ResourceId rid, ResourceOperation operation, CompletableFuture<Void> reply) {
+            if (ended || aborting) {
+                reply.completeExceptionally(new ActiveTransactionAborted());
+                return;
+            }
+            if (prepared) {
+                reply.completeExceptionally(new IllegalStateException("Branch " + id + " is prepared"));
+                return;
+            }
+            try {
+                tm.operateOnResourceInCurrentTransaction(rid, operation);
+                reply.complete(null);
+            } catch (Exception e) {
+                reply.completeExceptionally(e);
+            }
+        }
+
+        void prepare(CompletableFuture<Boolean> reply) {
+            if (ended) {
+                reply.complete(committed);
+                return;
+            }
+            if (aborting || tm.isTransactionAborted()) {
+                rollback();
+                reply.complete(false);
+                return;
+            }
+            prepared = true;
+            reply.complete(true);
+        }
+
+        void commit(CompletableFuture<Void> reply) {
+            if (ended) {
+                if (committed)
+                    reply.complete(null);
+                else
+                    reply.completeExceptionally(new ActiveTransactionAborted());
+                return;
+            }
+            if (aborting) {
+                rollback();
+                reply.completeExceptionally(new ActiveTransactionAborted());
+                return;
+            }
+            try {
+                tm.commitCurrentTransaction();
+                committed = true;
+                reply.complete(null);
+            } catch (Exception e) {
+                tm.rollbackCurrentTransaction();
+                reply.completeExceptionally(e);
+            }
+            ended = true;
+        }
+
+        void abort(CompletableFuture<Void> reply) {
+            if (!ended)
+                rollback();
+            reply.complete(null);
+        }
+
+        private void rollback() {
+            tm.rollbackCurrentTransaction();
+            ended = true;
+        }
+    }
+
+    // Returns the branch of a transaction, starting it if it is not there.
+    private Branch branch(long transactionId) {
+        Branch branch = branches.get(transactionId);
+        if (branch != null)
+            return branch;
+
+        Branch started = new Branch(transactionId);
+        branch = branches.putIfAbsent(transactionId, started);
+        if (branch != null)
+            return branch;
+
+        started.thread.start();
+        return started;
+    }
+
+    @Override
+    public CompletableFuture<Void> operate(long transactionId, ResourceId rid, ResourceOperation operation) {
+        CompletableFuture<Void> reply = new CompletableFuture<>();
+        Branch branch = branch(transactionId);
+        branch.send(() -> branch.operate(rid, operation, reply));
+        return reply;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> prepare(long transactionId) {
+        Branch branch = branches.get(transactionId);
+        if (branch == null)
+            return CompletableFuture.completedFuture(false);
+
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        branch.send(() -> branch.prepare(reply));
+        return reply;
+    }
+
+    @Override
+    public CompletableFuture<Void> commit(long transactionId) {
+        Branch branch = branches.get(transactionId);
+        if (branch == null)
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> reply = new CompletableFuture<>();
+        branch.send(() -> branch.commit(reply));
+        return reply;
+    }
+
+    // Unlike a second-phase commit, one of an unknown branch is not a resent
+    // decision: the branch is gone without having committed.
+    @Override
+    public CompletableFuture<Void> commitOnePhase(long transactionId) {
+        Branch branch = branches.get(transactionId);
+        if (branch == null)
+            return CompletableFuture.failedFuture(new ActiveTransactionAborted());
+
+        CompletableFuture<Void> reply = new CompletableFuture<>();
+        branch.send(() -> branch.commit(reply));
+        return reply;
+    }
+
+    @Override
+    public CompletableFuture<Void> abort(long transactionId) {
+        Branch branch = branches.get(transactionId);
+        if (branch == null)
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> reply = new CompletableFuture<>();
+        branch.aborting = true;
+        branch.send(() -> branch.abort(reply));
+        if (!branch.prepared)
+            branch.thread.interrupt();
+        return reply;
+    }
+}
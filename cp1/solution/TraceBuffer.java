@@ -0,0 +1,81 @@
+package cp1.solution;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Ring buffer of the most recent trace events of one thread. Only that thread
+// writes; the count of written events is published with a release store after
+// each record, and a reader copies the records and then drops those that the
+// writer may have overwritten while they were being copied.
+final class TraceBuffer {
+    private static final VarHandle WRITTEN;
+
+    static {
+        try {
+            WRITTEN = MethodHandles.lookup().findVarHandle(TraceBuffer.class, "written", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    final TransactionTracer tracer;
+    final Thread thread;
+
+    private final int mask;
+    private final long[] times;
+    // Event kind in the high half, resource slot in the low half.
+    private final long[] events;
+    private final long[] arguments;
+    private long written = 0;
+
+    TraceBuffer(TransactionTracer tracer, Thread thread, int capacity) {
+        this.tracer = tracer;
+        this.thread = thread;
+        mask = capacity - 1;
+        times = new long[capacity];
+        events = new long[capacity];
+        arguments = new long[capacity];
+    }
+
+    void record(TraceEvent event, int slot, long argument) {
+        long n = written;
+        int i = (int) n & mask;
+        times[i] = System.nanoTime();
+        events[i] = (long) event.ordinal() << 32 | (slot & 0xFFFFFFFFL);
+        arguments[i] = argument;
+        WRITTEN.setRelease(this, n + 1);
+    }
+
+    // Copies the events still in the buffer, oldest first, into the given
+    // arrays, which must have room for the capacity. Returns their number.
+    int copy(long[] times, long[] events, long[] arguments) {
+        long end = (long) WRITTEN.getAcquire(this);
+        long start = Math.max(0, end - (mask + 1));
+        for (long n = start; n < end; n++) {
+            int i = (int) n & mask;
+            int j = (int) (n - start);
+            times[j] = this.times[i];
+            events[j] = this.events[i];
+            arguments[j] = this.arguments[i];
+        }
+        // Entries below this may have been overwritten during the copy,
+        // including the one the writer may be filling in right now.
+        VarHandle.loadLoadFence();
+        long valid = Math.max(start, (long) WRITTEN.getAcquire(this) + 1 - (mask + 1));
+        if (valid >= end)
+            return 0;
+
+        int dropped = (int) (valid - start);
+        int count = (int) (end - valid);
+        if (dropped > 0) {
+            System.arraycopy(times, dropped, times, 0, count);
+            System.arraycopy(events, dropped, events, 0, count);
+            System.arraycopy(arguments, dropped, arguments, 0, count);
+        }
+        return count;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,32 @@
+package cp1.solution;
+
+/**
+ * Kinds of events recorded by a transaction manager
+ * while tracing is on. The ordinal is the code written
+ * to trace dumps.
+ */
+public enum TraceEvent {
+    /** A transaction started; the argument is its LocalTimeProvider start time. */
+    START,
+    /** A transaction queued for a resource. */
+    ACQUIRE_WAIT,
+    /**
+     * A transaction got a resource; the argument is the time
+     * it waited in nanoseconds, zero if it did not queue.
+     */
+    ACQUIRE_GRANTED,
+    /** An operation was applied to a resource. */
+    APPLY,
+    /** An operation was undone during a rollback. */
+    UNDO,
+    /**
+     * A deadlock victim was chosen, recorded by the thread that
+     * found the cycle; the argument is the victim's thread id and
+     * the resource is the one the victim was waiting for.
+     */
+    DEADLOCK_ABORT,
+    /** A transaction committed. */
+    COMMIT,
+    /** A transaction was rolled back; the argument is 1 if it had been aborted. */
+    ROLLBACK
+}
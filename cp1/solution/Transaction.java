@@ -0,0 +1,123 @@
+package cp1.solution;
+
+import java.util.concurrent.locks.LockSupport;
+
+// State of the transaction run by one thread. A thread gets one object per
+// manager and reuses it for all its transactions, so the hot path reaches
+// everything through a single ThreadLocal lookup instead of maps keyed by
+// boxed thread ids. Fields read by other threads, for deadlock detection and
+// hand-offs, are volatile; the rest is only touched by the owning thread.
+final class Transaction {
+    static final int INACTIVE = 0;
+    static final int ACTIVE = 1;
+    static final int ABORTED = 2;
+
+    static final int NOT_WAITING = -1;
+
+    final long threadId;
+    final Thread thread;
+
+    // Thread to wake on a grant or an abort: the transaction's own, or
+    // the sub-transaction's that acquires a resource on its behalf.
+    volatile Thread waiter;
+
+    volatile int state = INACTIVE;
+
+    // Entry time of the current transaction, by the manager's LocalTimeProvider.
+    volatile long startTime;
+
+    // Priority the current transaction was started with.
+    volatile int priority = 0;
+
+    // Slot of the resource this transaction is queued for or NOT_WAITING.
+    // For a shard of a ShardedTM, the slot among the locks of all shards.
+    // Only changed under the guard of that resource.
+    volatile int waitingOn = NOT_WAITING;
+
+    // Whether the awaited resource is wanted in shared mode.
+    // Set before the transaction is queued.
+    volatile boolean waitingShared = false;
+
+    // Set when a releasing transaction hands the awaited resource over.
+    volatile boolean granted = false;
+
+    final TransactionCounters counters;
+    final HeldResources held = new HeldResources();
+    final UndoLog undoLog = new UndoLog();
+
+    // Versions seen by reads, used only by OptimisticTM.
+    final ReadSet reads = new ReadSet();
+
+    // Scratch space of the deadlock detector when it runs on this thread.
+    final WaitChain waitChain = new WaitChain();
+
+    // Scratch space for the slots of a batch, in list order and in
+    // acquisition order. Grown as needed.
+    int[] batchSlots = new int[16];
+    int[] batchOrder = new int[16];
+
+    // Buffer of the tracer that last recorded an event of this transaction.
+    TraceBuffer traceBuffer = null;
+
+    // State whose counters and trace buffer take the events of this
+    // transaction's acquisitions: itself, or that of the sub-transaction
+    // acquiring a resource on its behalf, so that each stays single-writer.
+    Transaction recorder = this;
+
+    // Id of the current transaction in the durable log, 0 until it logs
+    // its first operation, and the space its records are built in.
+    long logId = 0;
+    int loggedOperations = 0;
+    LogRecordBuffer logRecord = null;
+
+    // Number of transactions started on this object, which tells savepoints
+    // of earlier ones apart, and the number of live savepoints of the current one.
+    long generation = 0;
+    int savepoints = 0;
+
+    // Sub-transactions of the current transaction, null until the first starts.
+    TransactionFamily family = null;
+
+    // For a shard of a ShardedTM, the thread's parts in all shards; set
+    // before the transaction first acquires anything.
+    ShardedTransaction shards = null;
+
+    Transaction(Thread thread) {
+        this.thread = thread;
+        this.waiter = thread;
+        this.threadId = thread.threadId();
+        this.counters = new TransactionCounters(thread);
+    }
+
+    // For markers that stand in for a transaction, such as ResourceLock.SHARED.
+    Transaction() {
+        this.thread = null;
+        this.waiter = null;
+        this.threadId = -1;
+        this.counters = null;
+    }
+
+    // Victim rule: the lowest priority, then the youngest transaction.
+    boolean isBetterVictimThan(Transaction other) {
+        int p = priority;
+        int otherP = other.priority;
+        return p < otherP || (p == otherP && other.isOlderThan(this));
+    }
+
+    // Age order: the earlier start, ties broken by the lowest thread id.
+    boolean isOlderThan(Transaction other) {
+        long time = startTime;
+        long otherTime = other.startTime;
+        return time < otherTime || (time == otherTime && threadId < other.threadId);
+    }
+
+    void grant() {
+        granted = true;
+        LockSupport.unpark(waiter);
+    }
+
+    void abort() {
+        state = ABORTED;
+        LockSupport.unpark(waiter);
+    }
+}
@@ -0,0 +1,70 @@
+package cp1.solution;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Counts of the frequent events of the transactions run by one thread.
+// Only that thread writes them, with opaque stores that cost no more than
+// plain ones, so the hot path never touches a shared cache line. TMMetrics
+// reads them when a snapshot is taken and folds them into its totals once
+// the thread has terminated.
+final class TransactionCounters {
+    private static final VarHandle COMMITS;
+    private static final VarHandle ROLLBACKS;
+    private static final VarHandle ABORTS;
+    private static final VarHandle UNCONTENDED_ACQUIRES;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            COMMITS = lookup.findVarHandle(TransactionCounters.class, "commits", long.class);
+            ROLLBACKS = lookup.findVarHandle(TransactionCounters.class, "rollbacks", long.class);
+            ABORTS = lookup.findVarHandle(TransactionCounters.class, "aborts", long.class);
+            UNCONTENDED_ACQUIRES = lookup.findVarHandle(
+                    TransactionCounters.class, "uncontendedAcquires", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    final Thread thread;
+
+    private long commits = 0;
+    private long rollbacks = 0;
+    private long aborts = 0;
+    private long uncontendedAcquires = 0;
+
+    TransactionCounters(Thread thread) {
+        this.thread = thread;
+    }
+
+    void uncontendedAcquire() {
+        UNCONTENDED_ACQUIRES.setOpaque(this, uncontendedAcquires + 1);
+    }
+
+    void commit() {
+        COMMITS.setOpaque(this, commits + 1);
+    }
+
+    void rollback(boolean aborted) {
+        ROLLBACKS.setOpaque(this, rollbacks + 1);
+        if (aborted)
+            ABORTS.setOpaque(this, aborts + 1);
+    }
+
+    long commits() {
+        return (long) COMMITS.getOpaque(this);
+    }
+
+    long rollbacks() {
+        return (long) ROLLBACKS.getOpaque(this);
+    }
+
+    long aborts() {
+        return (long) ABORTS.getOpaque(this);
+    }
+
+    long uncontendedAcquires() {
+        return (long) UNCONTENDED_ACQUIRES.getOpaque(this);
+    }
+}
@@ -0,0 +1,32 @@
+package cp1.solution;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cp1.base.SubTransaction;
+
+// Shared state of the sub-transactions of one transaction.
+final class TransactionFamily {
+    // Serializes acquisitions made as the parent, which may wait with the
+    // parent's waiting state: while one sub-transaction waits for a resource,
+    // a sibling needing a resource the parent does not hold yet waits behind
+    // it. Held across the park, so it is taken interruptibly.
+    final ReentrantLock acquireLock = new ReentrantLock();
+
+    // Serializes commits, which merge undo logs and write the parent's log
+    // records. Never held while waiting.
+    final ReentrantLock parentLock = new ReentrantLock();
+
+    // Sub-transaction operating on each resource, by slot.
+    final ConcurrentMap<Integer, Object> claims = new ConcurrentHashMap<>();
+
+    // Decremented by a sub-transaction after it is done with the parent's
+    // state, so a parent that reads zero sees all of its changes.
+    final AtomicInteger active = new AtomicInteger();
+
+    // The active sub-transactions, for the parent to roll back with itself.
+    final Set<SubTransaction> children = ConcurrentHashMap.newKeySet();
+}
@@ -7,10 +7,15 @@
  */
 package cp1.solution;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import cp1.base.TransactionManager;
 import cp1.base.LocalTimeProvider;
+import cp1.base.OperationSerializer;
 import cp1.base.Resource;
 import cp1.solution.TM;
 /**
@@ -36,5 +41,201 @@ public final class TransactionManagerFactory {
 			LocalTimeProvider timeProvider) {
 		return new TM(resources, timeProvider);
 	}
+
+	/**
+	 * Instantiates a transaction manager that looks
+	 * for deadlocks according to a given strategy,
+	 * checking every default detection interval
+	 * where the strategy is periodic.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param detection The deadlock detection strategy.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newTM(
+			Collection <Resource> resources,
+			LocalTimeProvider timeProvider,
+			DeadlockDetection detection) {
+		return new TM(resources, timeProvider, detection,
+				TM.DEFAULT_DETECTION_INTERVAL_MILLIS).startDetection();
+	}
+
+	/**
+	 * Instantiates a transaction manager that looks
+	 * for deadlocks according to a given strategy.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param detection The deadlock detection strategy.
+	 * @param detectionIntervalMillis The period of the
+	 *     PERIODIC strategy or the lock-wait timeout of
+	 *     the TIMEOUT strategy, in milliseconds.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newTM(
+			Collection <Resource> resources,
+			LocalTimeProvider timeProvider,
+			DeadlockDetection detection,
+			long detectionIntervalMillis) {
+		return new TM(resources, timeProvider, detection,
+				detectionIntervalMillis).startDetection();
+	}
 	
+	/**
+	 * Instantiates a transaction manager meant for
+	 * virtual threads. It keeps no per-thread state
+	 * between transactions and never pins a carrier
+	 * thread while waiting for a resource.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param detection The deadlock detection strategy.
+	 * @param detectionIntervalMillis The period of the
+	 *     PERIODIC strategy or the lock-wait timeout of
+	 *     the TIMEOUT strategy, in milliseconds.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newVirtualThreadTM(
+			Collection <Resource> resources,
+			LocalTimeProvider timeProvider,
+			DeadlockDetection detection,
+			long detectionIntervalMillis) {
+		return new TM(resources, timeProvider, detection,
+				detectionIntervalMillis, true).startDetection();
+	}
+
+	/**
+	 * Instantiates an optimistic transaction manager.
+	 * Writes never wait: a write to a resource that
+	 * another transaction is writing aborts the writer.
+	 * Read-only operations take no lock and are
+	 * validated at commit, which aborts the transaction
+	 * if anything it read has been written since.
+	 * Read-only operations must tolerate running
+	 * concurrently with writes to the same resource.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newOptimisticTM(
+			Collection <Resource> resources,
+			LocalTimeProvider timeProvider) {
+		return new OptimisticTM(resources, timeProvider);
+	}
+
+	/**
+	 * Instantiates a transaction manager that splits
+	 * the resources among a number of shards by the
+	 * hash codes of their identifiers. A transaction
+	 * that only uses resources of one shard does not
+	 * touch the state of the others; deadlocks are
+	 * detected across shards.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param shardCount The number of shards.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newShardedTM(
+			Collection <Resource> resources,
+			LocalTimeProvider timeProvider,
+			int shardCount) {
+		return new ShardedTM(resources, timeProvider, DeadlockDetection.EAGER,
+				TM.DEFAULT_DETECTION_INTERVAL_MILLIS, shardCount);
+	}
+
+	/**
+	 * Instantiates a transaction manager that splits
+	 * the resources among a number of shards and looks
+	 * for deadlocks according to a given strategy.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param detection The deadlock detection strategy.
+	 * @param detectionIntervalMillis The period of the
+	 *     PERIODIC strategy or the lock-wait timeout of
+	 *     the TIMEOUT strategy, in milliseconds.
+	 * @param shardCount The number of shards.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newShardedTM(
+			Collection <Resource> resources,
+			LocalTimeProvider timeProvider,
+			DeadlockDetection detection,
+			long detectionIntervalMillis,
+			int shardCount) {
+		return new ShardedTM(resources, timeProvider, detection,
+				detectionIntervalMillis, shardCount);
+	}
+
+	/**
+	 * Instantiates a transaction manager that logs
+	 * every operation that is not read-only to files
+	 * in a given directory, in segments of a default
+	 * size. See the next method.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param directory The directory of the log.
+	 * @param serializer Converts operations to bytes.
+	 * @param groupCommitWindowMicros How long a commit
+	 *     waits for others to share its disk flush.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 * @throws IOException If the log cannot be read
+	 *     or created.
+	 */
+	public final static TransactionManager newDurableTM(
+			Collection <Resource> resources,
+			LocalTimeProvider timeProvider,
+			Path directory,
+			OperationSerializer serializer,
+			long groupCommitWindowMicros) throws IOException {
+		return newDurableTM(resources, timeProvider, directory,
+				serializer, DurableLog.DEFAULT_SEGMENT_SIZE,
+				groupCommitWindowMicros);
+	}
+
+	/**
+	 * Instantiates a transaction manager that logs
+	 * every operation that is not read-only to files
+	 * in a given directory. A commit returns once it
+	 * is on disk; commits that arrive within the group
+	 * commit window of each other share a flush.
+	 * The resources must be in the state they had when
+	 * the log was first created: whatever the log holds
+	 * is applied to them, and the transactions that had
+	 * not finished are undone, before this returns.
+	 * The resources must also have the same identifiers
+	 * as back then.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param directory The directory of the log.
+	 * @param serializer Converts operations to bytes.
+	 * @param segmentBytes The size of each log file.
+	 * @param groupCommitWindowMicros How long a commit
+	 *     waits for others to share its disk flush.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 * @throws IOException If the log cannot be read
+	 *     or created.
+	 */
+	public final static TransactionManager newDurableTM(
+			Collection <Resource> resources,
+			LocalTimeProvider timeProvider,
+			Path directory,
+			OperationSerializer serializer,
+			int segmentBytes,
+			long groupCommitWindowMicros) throws IOException {
+		DurableLog log = new DurableLog(directory, serializer, segmentBytes,
+				TimeUnit.MICROSECONDS.toNanos(groupCommitWindowMicros));
+		try {
+			return new TM(resources, timeProvider, DeadlockDetection.EAGER,
+					TM.DEFAULT_DETECTION_INTERVAL_MILLIS, false, log);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
 }
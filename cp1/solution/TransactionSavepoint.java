@@ -0,0 +1,34 @@
+package cp1.solution;
+
+import cp1.base.Savepoint;
+
+// Lengths of a transaction's undo log, held resources and logged
+// operations at the time a savepoint was created. Rolling back to it
+// only truncates them, nothing is copied.
+final class TransactionSavepoint implements Savepoint {
+    private final Transaction transaction;
+    private final long generation;
+
+    // Position among the transaction's live savepoints.
+    final int index;
+
+    final int undoSize;
+    final int heldSize;
+    final int loggedOperations;
+
+    TransactionSavepoint(Transaction transaction, int index, int undoSize, int heldSize, int loggedOperations) {
+        this.transaction = transaction;
+        this.generation = transaction.generation;
+        this.index = index;
+        this.undoSize = undoSize;
+        this.heldSize = heldSize;
+        this.loggedOperations = loggedOperations;
+    }
+
+    // Whether the savepoint was created by the transaction now running on a given
+    // state object and has not been dropped by a rollback to an earlier one.
+    boolean isLiveIn(Transaction transaction) {
+        return this.transaction == transaction && generation == transaction.generation
+                && index < transaction.savepoints;
+    }
+}
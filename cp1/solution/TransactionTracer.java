@@ -0,0 +1,112 @@
+package cp1.solution;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One tracing session of a TM: a ring buffer per thread that has run
+// a transaction, plus one for the PERIODIC detector thread. The number of
+// buffers is bounded; past the bound, buffers of terminated threads are
+// dropped first and then the oldest ones.
+//
+// Dump format, big-endian as written by DataOutputStream:
+//   int MAGIC, int VERSION
+//   int number of buffers, then for each:
+//     long thread id, UTF thread name, int number of events, then for each:
+//       long System.nanoTime, int TraceEvent ordinal, int resource slot or -1,
+//       long argument
+//   int number of resources referenced, then for each:
+//     int slot, UTF ResourceId.toString()
+final class TransactionTracer {
+    static final int MAGIC = 0x43503154;
+    static final int VERSION = 1;
+
+    static final int MAX_BUFFERS = 1024;
+
+    private final int capacity;
+    private final Queue<TraceBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferCount = new AtomicInteger();
+
+    // Written only by the PERIODIC detector thread.
+    private TraceBuffer detectorBuffer = null;
+
+    TransactionTracer(int eventsPerThread) {
+        if (eventsPerThread <= 0 || eventsPerThread > 1 << 30)
+            throw new IllegalArgumentException("Events per thread out of range: " + eventsPerThread);
+
+        capacity = eventsPerThread == 1 ? 1 : Integer.highestOneBit(eventsPerThread - 1) << 1;
+    }
+
+    // Must run on the transaction's thread.
+    void record(Transaction transaction, TraceEvent event, int slot, long argument) {
+        TraceBuffer buffer = transaction.traceBuffer;
+        if (buffer == null || buffer.tracer != this) {
+            buffer = register(transaction.thread);
+            transaction.traceBuffer = buffer;
+        }
+        buffer.record(event, slot, argument);
+    }
+
+    // Must run on the PERIODIC detector thread.
+    void recordDetector(TraceEvent event, int slot, long argument) {
+        if (detectorBuffer == null)
+            detectorBuffer = register(Thread.currentThread());
+        detectorBuffer.record(event, slot, argument);
+    }
+
+    private TraceBuffer register(Thread thread) {
+        TraceBuffer buffer = new TraceBuffer(this, thread, capacity);
+        buffers.add(buffer);
+        if (bufferCount.incrementAndGet() > MAX_BUFFERS) {
+            for (TraceBuffer old : buffers) {
+                if (bufferCount.get() <= MAX_BUFFERS)
+                    break;
+                if (!old.thread.isAlive() && buffers.remove(old))
+                    bufferCount.decrementAndGet();
+            }
+            while (bufferCount.get() > MAX_BUFFERS && buffers.poll() != null)
+                bufferCount.decrementAndGet();
+        }
+        return buffer;
+    }
+
+    void dump(OutputStream stream, ResourceIndex resources) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        List<TraceBuffer> snapshot = new ArrayList<>(buffers);
+        long[] times = new long[capacity];
+        long[] events = new long[capacity];
+        long[] arguments = new long[capacity];
+        BitSet referenced = new BitSet();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(snapshot.size());
+        for (TraceBuffer buffer : snapshot) {
+            int count = buffer.copy(times, events, arguments);
+            out.writeLong(buffer.thread.threadId());
+            out.writeUTF(buffer.thread.getName());
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                int slot = (int) events[i];
+                out.writeLong(times[i]);
+                out.writeInt((int) (events[i] >>> 32));
+                out.writeInt(slot);
+                out.writeLong(arguments[i]);
+                if (slot >= 0)
+                    referenced.set(slot);
+            }
+        }
+        out.writeInt(referenced.cardinality());
+        for (int slot = referenced.nextSetBit(0); slot >= 0; slot = referenced.nextSetBit(slot + 1)) {
+            out.writeInt(slot);
+            out.writeUTF(String.valueOf(resources.get(slot).getId()));
+        }
+        out.flush();
+    }
+}
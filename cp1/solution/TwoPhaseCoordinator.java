@@ -0,0 +1,142 @@
+package cp1.solution;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cp1.base.Participant;
+
+// Runs global transactions over a fixed list of participants with
+// two-phase commit, presumed abort. Only the decision to commit is
+// logged: the COMMIT record, with the participants involved, is forced
+// before any of them is told, and an END record follows, unforced, once
+// all of them have committed. A transaction with no COMMIT record is
+// aborted, so aborts and votes are never logged. After a crash, open
+// sends the commits the log has no END record for again.
+// Decisions share disk flushes by group commit.
+//
+// Waits for a resource are only visible to the deadlock detection of the
+// participant they happen on, so a cycle through several participants is
+// never detected. Instead every message has a timeout: a transaction
+// whose operation or vote does not arrive in time is aborted, which
+// interrupts its waiting operations and releases its resources.
+public class TwoPhaseCoordinator {
+    // The participants of a transaction are a bit set in the argument of its COMMIT record.
+    public static final int MAX_PARTICIPANTS = 31;
+
+    // Transaction ids are reserved in blocks with an END record of the last
+    // id of the block, so that after a restart ids continue past every id
+    // that may have been used, logged or not.
+    private static final long ID_BLOCK = 1 << 16;
+
+    private final List<Participant> participants;
+    private final long timeoutNanos;
+    private final DurableLog log;
+
+    // Taken by whoever reserves the next block. A lock rather than a monitor,
+    // as it is held while waiting for the disk, which would pin a carrier
+    // thread of a virtual thread.
+    private final ReentrantLock reservation = new ReentrantLock();
+    private volatile long reservedUpTo;
+
+    // Commits found in the log without an END record, until open sends them.
+    private Map<Long, Integer> undelivered;
+
+    // Makes a coordinator over a log directory, new or left by an earlier
+    // coordinator, and sends the commits that may not have been delivered.
+    public static TwoPhaseCoordinator open(List<Participant> participants,
+                                           long timeoutMillis,
+                                           Path logDirectory,
+                                           long groupCommitWindowMicros) throws IOException {
+        TwoPhaseCoordinator coordinator =
+                new TwoPhaseCoordinator(participants, timeoutMillis, logDirectory, groupCommitWindowMicros);
+        for (Map.Entry<Long, Integer> decision : coordinator.undelivered.entrySet())
+            coordinator.deliverCommit(decision.getKey(), decision.getValue());
+        coordinator.undelivered = null;
+        return coordinator;
+    }
+
+    private TwoPhaseCoordinator(List<Participant> participants,
+                                long timeoutMillis,
+                                Path logDirectory,
+                                long groupCommitWindowMicros) throws IOException {
+        if (participants.size() > MAX_PARTICIPANTS)
+            throw new IllegalArgumentException("More than " + MAX_PARTICIPANTS + " participants");
+        if (timeoutMillis <= 0)
+            throw new IllegalArgumentException("Timeout must be positive");
+
+        this.participants = new ArrayList<>(participants);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.log = new DurableLog(logDirectory, null, DurableLog.DEFAULT_SEGMENT_SIZE,
+                TimeUnit.MICROSECONDS.toNanos(groupCommitWindowMicros));
+        this.undelivered = log.recoverDecisions();
+        reservedUpTo = log.newTransactionId();
+    }
+
+    public int getParticipantCount() {
+        return participants.size();
+    }
+
+    // Number of times the log has been forced to disk.
+    public long getLogForces() {
+        return log.forces();
+    }
+
+    public GlobalTransaction begin() {
+        long id = log.newTransactionId();
+        if (id >= reservedUpTo) {
+            reservation.lock();
+            try {
+                while (id >= reservedUpTo) {
+                    long upTo = reservedUpTo + ID_BLOCK;
+                    log.awaitDurable(append(DurableLog.END, upTo, 0));
+                    reservedUpTo = upTo;
+                }
+            } finally {
+                reservation.unlock();
+            }
+        }
+        return new GlobalTransaction(this, id);
+    }
+
+    Participant participant(int index) {
+        return participants.get(index);
+    }
+
+    long timeoutNanos() {
+        return timeoutNanos;
+    }
+
+    // Logs the decision to commit and returns once it is on disk.
+    void logCommit(long id, int involved) {
+        log.awaitDurable(append(DurableLog.COMMIT, id, involved));
+    }
+
+    // Tells the participants of a committed transaction and logs its end
+    // once all of them have answered. Returns a future completed then.
+    CompletableFuture<Void> deliverCommit(long id, int involved) {
+        List<CompletableFuture<Void>> acks = new ArrayList<>();
+        for (int p = 0; p < participants.size(); p++) {
+            if ((involved & 1 << p) != 0)
+                acks.add(participants.get(p).commit(id));
+        }
+        return CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> append(DurableLog.END, id, 0));
+    }
+
+    private long append(byte type, long id, int argument) {
+        LogRecordBuffer record = new LogRecordBuffer();
+        try {
+            record.build(type, id, argument, null, null);
+            return log.append(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
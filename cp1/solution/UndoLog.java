@@ -0,0 +1,66 @@
+package cp1.solution;
+
+import java.util.Arrays;
+
+import cp1.base.ResourceOperation;
+
+// Operations applied by the current transaction of one thread, as parallel
+// arrays of resource slots and operations. It is cleared rather than
+// reallocated between transactions, so a thread stops allocating once the
+// arrays have grown to its longest transaction. Only the owning thread touches it.
+final class UndoLog {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private ResourceOperation[] operations = new ResourceOperation[INITIAL_CAPACITY];
+    private int size = 0;
+
+    void append(int slot, ResourceOperation operation) {
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+            operations = Arrays.copyOf(operations, size * 2);
+        }
+        slots[size] = slot;
+        operations[size] = operation;
+        size++;
+    }
+
+    // Undoes the logged operations from the newest to the oldest and clears the log.
+    void undo(ResourceIndex resources) {
+        undoTo(resources, 0);
+    }
+
+    // Undoes the operations logged after the first n, newest first, and drops them.
+    void undoTo(ResourceIndex resources, int n) {
+        while (size > n) {
+            size--;
+            resources.get(slots[size]).unapply(operations[size]);
+            operations[size] = null;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Slot of the i-th logged operation, oldest first.
+    int slot(int i) {
+        return slots[i];
+    }
+
+    ResourceOperation operation(int i) {
+        return operations[i];
+    }
+
+    // Appends the operations of another log, oldest first, and clears that log.
+    void moveFrom(UndoLog other) {
+        for (int i = 0; i < other.size; i++)
+            append(other.slots[i], other.operations[i]);
+        other.clear();
+    }
+
+    void clear() {
+        Arrays.fill(operations, 0, size, null);
+        size = 0;
+    }
+}
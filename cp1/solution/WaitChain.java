@@ -0,0 +1,152 @@
+package cp1.solution;
+
+import java.util.Arrays;
+
+// Resources and holders on a wait-for chain followed by the deadlock detector:
+// the transaction before entry i waits for slot i, which is held by holder i.
+// When resources are held in shared mode the wait-for graph branches, and the
+// chain doubles as the stack of a depth-first search, with the holders of each
+// entry still to be tried and the transactions already expanded.
+// Reused by the thread that owns it, so a detection run does not allocate
+// once the arrays have grown to the longest chain seen.
+final class WaitChain {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int[] sorted = new int[INITIAL_CAPACITY];
+    private Transaction[] holders = new Transaction[INITIAL_CAPACITY];
+    private int length = 0;
+
+    // Search state: candidate holders of all entries, those of entry i
+    // starting at firstCandidate[i], the next one to try at nextCandidate[i].
+    private Transaction[] candidates = new Transaction[INITIAL_CAPACITY];
+    private int candidateCount = 0;
+    private int[] firstCandidate = new int[INITIAL_CAPACITY];
+    private int[] nextCandidate = new int[INITIAL_CAPACITY];
+
+    // Open-addressing identity set of transactions the search has expanded.
+    private Transaction[] visited = new Transaction[INITIAL_CAPACITY * 4];
+    private int visitedCount = 0;
+
+    void clear() {
+        Arrays.fill(holders, 0, length, null);
+        length = 0;
+        Arrays.fill(candidates, 0, candidateCount, null);
+        candidateCount = 0;
+        if (visitedCount > 0) {
+            Arrays.fill(visited, null);
+            visitedCount = 0;
+        }
+    }
+
+    void add(int slot, Transaction holder) {
+        push(slot);
+        holders[length - 1] = holder;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int get(int i) {
+        return slots[i];
+    }
+
+    Transaction holder(int i) {
+        return holders[i];
+    }
+
+    // Returns the slots in ascending order, the order in which their guards are taken.
+    // Only the first length() entries are meaningful.
+    int[] sortedSlots() {
+        System.arraycopy(slots, 0, sorted, 0, length);
+        Arrays.sort(sorted, 0, length);
+        return sorted;
+    }
+
+    // Opens a search entry for a slot; its candidate holders are added next.
+    void push(int slot) {
+        if (length == slots.length) {
+            int capacity = length * 2;
+            slots = Arrays.copyOf(slots, capacity);
+            sorted = new int[capacity];
+            holders = Arrays.copyOf(holders, capacity);
+            firstCandidate = Arrays.copyOf(firstCandidate, capacity);
+            nextCandidate = Arrays.copyOf(nextCandidate, capacity);
+        }
+        slots[length] = slot;
+        holders[length] = null;
+        firstCandidate[length] = candidateCount;
+        nextCandidate[length] = candidateCount;
+        length++;
+    }
+
+    // Closes the last entry after all its candidates have been tried.
+    void pop() {
+        length--;
+        holders[length] = null;
+        int first = firstCandidate[length];
+        Arrays.fill(candidates, first, candidateCount, null);
+        candidateCount = first;
+    }
+
+    void addCandidate(Transaction candidate) {
+        if (candidateCount == candidates.length)
+            candidates = Arrays.copyOf(candidates, candidateCount * 2);
+        candidates[candidateCount++] = candidate;
+    }
+
+    // Adds the readers of a resource other than a given one as candidates.
+    // Must hold the guard of the resource.
+    void addReaders(ResourceLock lock, Transaction except) {
+        int first = candidateCount;
+        candidates = lock.copyReaders(candidates, first);
+        int count = lock.readerCount();
+        for (int i = first; i < first + count; i++) {
+            if (candidates[i] != except)
+                candidates[candidateCount++] = candidates[i];
+        }
+        Arrays.fill(candidates, candidateCount, first + count, null);
+    }
+
+    // Moves the last entry to its next candidate, which becomes its holder.
+    // Returns null when the candidates are exhausted.
+    Transaction advance() {
+        int top = length - 1;
+        if (nextCandidate[top] == candidateCount)
+            return null;
+
+        Transaction next = candidates[nextCandidate[top]++];
+        holders[top] = next;
+        return next;
+    }
+
+    // Adds a transaction to the visited set. Returns false if it was there already.
+    boolean visit(Transaction transaction) {
+        if (2 * (visitedCount + 1) > visited.length) {
+            Transaction[] old = visited;
+            visited = new Transaction[2 * old.length];
+            for (Transaction t : old) {
+                if (t != null)
+                    insert(t);
+            }
+        }
+        if (!insert(transaction))
+            return false;
+
+        visitedCount++;
+        return true;
+    }
+
+    private boolean insert(Transaction transaction) {
+        int mask = visited.length - 1;
+        int i = (System.identityHashCode(transaction) * 0x9E3779B9) >>> 7 & mask;
+        while (visited[i] != null) {
+            if (visited[i] == transaction)
+                return false;
+            i = (i + 1) & mask;
+        }
+        visited[i] = transaction;
+        return true;
+    }
+}
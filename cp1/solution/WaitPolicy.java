@@ -0,0 +1,26 @@
+package cp1.solution;
+
+/**
+ * Order in which the transactions queued for a resource get it.
+ * Readers waiting to upgrade their hold always go first, and an
+ * unfair resource may still go to a transaction that finds it free.
+ */
+public enum WaitPolicy {
+    /**
+     * In arrival order.
+     */
+    FIFO,
+
+    /**
+     * Oldest transaction first, by start time, as in wound-wait,
+     * so the transactions that deadlock detection would abort last
+     * are also the first to be served.
+     */
+    OLDEST_FIRST,
+
+    /**
+     * Highest priority first, in arrival order among equal ones.
+     * A steady stream of higher priorities starves the lower ones.
+     */
+    PRIORITY
+}